@@ -0,0 +1,352 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// ---------- Column-oriented item store: the same findItemById/allItems surface, a fraction of the heap ----------
+// Books are kept as one row across parallel arrays instead of one object each:
+//   String[] ids, String[] titles, int[] years, int[] authors, int[] genres,
+//   int[] copies, int[] shelf (copies on the shelf), long[] available (bitset: shelf > 0)
+// Authors and genres are dictionary-encoded, so each distinct name is stored once however many
+// books share it, and ids are found through an open-addressing table of row numbers rather than
+// boxed map entries. Reads hand out flyweight Book views over a row; the view's fields point at
+// the stored strings, so creating one copies nothing, and setTitle/setAvailable on a view write
+// through to the columns. Views are cheap, short-lived and not identical across lookups: compare
+// items by id, not by reference. Items that are not books are kept as ordinary objects.
+// This is a standalone store, not Library's: Library's checkouts CAS the copy counter on the item
+// object and its facet index and views key on item identity, which a per-lookup view cannot give.
+// LibraryBenchmark --heap loads it beside the object layout to compare retained heap.
+class CompactItemStore {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] ids = new String[1024];
+    private String[] titles = new String[1024];
+    private int[] years = new int[1024];
+    private int[] authors = new int[1024];
+    private int[] genres = new int[1024];
+    private int[] copies = new int[1024];
+    private int[] shelf = new int[1024];
+    private long[] available = new long[1024 / 64];
+    private int rows;      // rows ever used, including removed ones
+    private int liveRows;
+    private int[] freeRows = new int[16]; // removed rows, reused before new ones
+    private int freeCount;
+
+    private int[] slots = new int[2048]; // row + 1 per slot, 0 = empty; linear probing, power-of-two size
+    private final Dictionary authorDict = new Dictionary();
+    private final Dictionary genreDict = new Dictionary();
+    private final Map<String, LibraryItem> others = new ConcurrentHashMap<>(); // non-book items
+
+    static CompactItemStore of(Collection<? extends LibraryItem> items) {
+        CompactItemStore store = new CompactItemStore();
+        for (LibraryItem it : items) store.addItem(it);
+        return store;
+    }
+
+    public void addItem(LibraryItem item) {
+        if (!(item instanceof Book)) {
+            removeItem(item.getId());
+            others.put(item.getId(), item);
+            return;
+        }
+        Book b = (Book) item;
+        lock.writeLock().lock();
+        try {
+            others.remove(b.getId());
+            int row = rowOf(b.getId());
+            if (row < 0) {
+                row = freeCount > 0 ? freeRows[--freeCount] : rows++;
+                ensureCapacity(rows);
+                ids[row] = b.getId();
+                liveRows++;
+                insertSlot(row);
+            }
+            titles[row] = b.getTitle();
+            years[row] = b.getYear();
+            authors[row] = authorDict.encode(b.getAuthor());
+            genres[row] = genreDict.encode(b.getGenre());
+            copies[row] = b.getCopies();
+            setShelf(row, b.getAvailableCopies());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public LibraryItem removeItem(String id) {
+        LibraryItem other = others.remove(id);
+        if (other != null) return other;
+        lock.writeLock().lock();
+        try {
+            int row = rowOf(id);
+            if (row < 0) return null;
+            LibraryItem removed = detached(row);
+            deleteSlot(id);
+            ids[row] = null;
+            titles[row] = null;
+            setShelf(row, 0);
+            liveRows--;
+            if (freeCount == freeRows.length) freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+            freeRows[freeCount++] = row;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public LibraryItem findItemById(String id) {
+        LibraryItem other = others.get(id);
+        if (other != null) return other;
+        lock.readLock().lock();
+        try {
+            int row = rowOf(id);
+            return row < 0 ? null : new BookView(this, row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveRows + others.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // books with a copy on the shelf, counted from the bitset
+    public int availableCount() {
+        lock.readLock().lock();
+        try {
+            int n = 0;
+            for (int w = 0, words = (rows + 63) >>> 6; w < words; w++) n += Long.bitCount(available[w]);
+            for (LibraryItem it : others.values()) if (it.isAvailable()) n++;
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // weakly consistent like the map it replaces: rows added or removed while iterating may or may not appear
+    public Collection<LibraryItem> allItems() {
+        return new AbstractCollection<LibraryItem>() {
+            @Override public int size() { return CompactItemStore.this.size(); }
+
+            @Override
+            public Iterator<LibraryItem> iterator() {
+                Iterator<LibraryItem> rest = others.values().iterator();
+                return new Iterator<LibraryItem>() {
+                    private int row;
+                    private LibraryItem next = advance();
+
+                    // the next live row's view, then the other items; null at the end
+                    private LibraryItem advance() {
+                        lock.readLock().lock();
+                        try {
+                            while (row < rows) {
+                                int r = row++;
+                                if (ids[r] != null) return new BookView(CompactItemStore.this, r);
+                            }
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                        return rest.hasNext() ? rest.next() : null;
+                    }
+
+                    @Override public boolean hasNext() { return next != null; }
+
+                    @Override
+                    public LibraryItem next() {
+                        if (next == null) throw new NoSuchElementException();
+                        LibraryItem it = next;
+                        next = advance();
+                        return it;
+                    }
+                };
+            }
+        };
+    }
+
+    // a standalone Book holding the row's current values, for callers that outlive the row
+    private Book detached(int row) {
+        Book b = new Book(ids[row], titles[row], authorDict.decode(authors[row]), years[row], genreDict.decode(genres[row]), copies[row]);
+        b.resetAvailableCopies(copies[row] - shelf[row]);
+        return b;
+    }
+
+    // ---------- flyweight view over one row ----------
+    // Book's own fields are filled with references to the stored strings at creation; title and
+    // the copy counts can change afterwards, so those are always read from the columns.
+    private static final class BookView extends Book {
+        private static final long serialVersionUID = 1L;
+        private final transient CompactItemStore store;
+        private final transient int row;
+
+        BookView(CompactItemStore s, int row) {
+            super(s.ids[row], s.titles[row], s.authorDict.decode(s.authors[row]), s.years[row], s.genreDict.decode(s.genres[row]), s.copies[row]);
+            this.store = s;
+            this.row = row;
+            resetAvailableCopies(s.copies[row] - s.shelf[row]);
+        }
+
+        @Override
+        public String getTitle() {
+            store.lock.readLock().lock();
+            try {
+                return live() ? store.titles[row] : title;
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void setTitle(String title) {
+            super.setTitle(title);
+            store.lock.writeLock().lock();
+            try {
+                if (live()) store.titles[row] = title;
+            } finally {
+                store.lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public int getCopies() {
+            store.lock.readLock().lock();
+            try {
+                return live() ? store.copies[row] : super.getCopies();
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public int getAvailableCopies() {
+            store.lock.readLock().lock();
+            try {
+                return live() ? store.shelf[row] : super.getAvailableCopies();
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean isAvailable() {
+            store.lock.readLock().lock();
+            try {
+                return live() ? store.getBit(row) : super.isAvailable();
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void setAvailable(boolean available) {
+            super.setAvailable(available);
+            store.lock.writeLock().lock();
+            try {
+                if (live()) store.setShelf(row, available ? store.copies[row] : 0);
+            } finally {
+                store.lock.writeLock().unlock();
+            }
+        }
+
+        // the row may have been removed, and reused by another id, since this view was made
+        private boolean live() { return getId().equals(store.ids[row]); }
+
+        // serialized as the plain Book it stands for
+        private Object writeReplace() {
+            Book b = new Book(getId(), getTitle(), getAuthor(), getYear(), getGenre(), getCopies());
+            b.resetAvailableCopies(b.getCopies() - getAvailableCopies());
+            return b;
+        }
+    }
+
+    // ---------- columns ----------
+    private void ensureCapacity(int n) {
+        if (n <= ids.length) return;
+        int cap = Math.max(n, ids.length * 2);
+        ids = Arrays.copyOf(ids, cap);
+        titles = Arrays.copyOf(titles, cap);
+        years = Arrays.copyOf(years, cap);
+        authors = Arrays.copyOf(authors, cap);
+        genres = Arrays.copyOf(genres, cap);
+        copies = Arrays.copyOf(copies, cap);
+        shelf = Arrays.copyOf(shelf, cap);
+        available = Arrays.copyOf(available, (cap + 63) / 64);
+    }
+
+    private boolean getBit(int row) { return (available[row >>> 6] & (1L << row)) != 0; }
+
+    private void setShelf(int row, int n) {
+        shelf[row] = n;
+        if (n > 0) available[row >>> 6] |= 1L << row;
+        else available[row >>> 6] &= ~(1L << row);
+    }
+
+    // ---------- id -> row hash table ----------
+    private int rowOf(String id) {
+        int mask = slots.length - 1;
+        for (int i = spread(id.hashCode()) & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0) return -1;
+            if (ids[s - 1].equals(id)) return s - 1;
+        }
+    }
+
+    private void insertSlot(int row) {
+        if (liveRows * 2 > slots.length) rehash(slots.length * 2);
+        int mask = slots.length - 1;
+        int i = spread(ids[row].hashCode()) & mask;
+        while (slots[i] != 0) i = (i + 1) & mask;
+        slots[i] = row + 1;
+    }
+
+    // backward-shift deletion keeps probe chains intact without tombstones
+    private void deleteSlot(String id) {
+        int mask = slots.length - 1;
+        int i = spread(id.hashCode()) & mask;
+        while (!ids[slots[i] - 1].equals(id)) i = (i + 1) & mask;
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = spread(ids[slots[j] - 1].hashCode()) & mask;
+            // move slot j back into the hole at i unless its home lies cyclically in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = 0;
+    }
+
+    private void rehash(int size) {
+        int[] old = slots;
+        slots = new int[size];
+        int mask = size - 1;
+        for (int s : old) {
+            if (s == 0) continue;
+            int i = spread(ids[s - 1].hashCode()) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = s;
+        }
+    }
+
+    private static int spread(int h) { return (h ^ (h >>> 16)) * 0x9E3779B9; }
+
+    // ---------- string dictionary: each distinct value once, referred to by code ----------
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+
+        int encode(String v) {
+            if (v == null) return -1;
+            Integer c = codes.get(v);
+            if (c != null) return c;
+            int code = codes.size();
+            if (code == values.length) values = Arrays.copyOf(values, code * 2);
+            values[code] = v;
+            codes.put(v, code);
+            return code;
+        }
+
+        String decode(int code) { return code < 0 ? null : values[code]; }
+    }
+}
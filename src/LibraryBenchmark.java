@@ -0,0 +1,288 @@
+import java.io.*;
+import java.lang.ref.Reference;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+// ---------- Micro-benchmark suite for Library hot paths ----------
+// usage: java -Xmx6g LibraryBenchmark [--sizes 10000,100000,1000000] [--only name,...]
+//                                     [--save-baseline file] [--baseline file] [--tolerance 0.25]
+//        java -Xmx6g LibraryBenchmark --heap [--sizes ...]   retained heap per item instead of timings
+// For each catalogue size a library is generated with a fixed seed: books, one member per ten
+// books, and a loan history of one loan per book spread over a year, a tenth of them still open.
+// Every benchmark is warmed up, then measured over several timed iterations; the mean ns/op is
+// reported with its spread. --save-baseline writes the results as CSV, and --baseline compares a
+// run against such a file and exits with status 1 if anything got slower than the tolerance.
+// --heap reports the heap retained per item by the same books held three ways: a map of Book
+// objects alone, a Library catalogue (map plus its indexes), and a CompactItemStore's columns;
+// then by the full generated library with its members and loans.
+public class LibraryBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+
+    private static volatile long sink; // consumes results so the JIT cannot drop the work
+
+    private interface Op { long run(int i) throws Exception; }
+
+    private static class Result {
+        final String name;
+        final int size;
+        final double nsPerOp, stddev;
+
+        Result(String name, int size, double nsPerOp, double stddev) {
+            this.name = name;
+            this.size = size;
+            this.nsPerOp = nsPerOp;
+            this.stddev = stddev;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        Set<String> only = null;
+        String saveBaseline = null, baseline = null;
+        double tolerance = 0.25;
+        boolean heap = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--heap": heap = true; break;
+                case "--sizes": sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--only": only = new HashSet<>(Arrays.asList(args[++i].split(","))); break;
+                case "--save-baseline": saveBaseline = args[++i]; break;
+                case "--baseline": baseline = args[++i]; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (heap) {
+            for (int size : sizes) measureHeap(size);
+            return;
+        }
+        List<Result> results = new ArrayList<>();
+        for (int size : sizes) {
+            System.out.printf("== %,d items ==%n", size);
+            results.addAll(runSuite(size, only));
+        }
+        if (saveBaseline != null) writeBaseline(results, Paths.get(saveBaseline));
+        if (baseline != null && !compare(results, Paths.get(baseline), tolerance)) System.exit(1);
+    }
+
+    static List<Result> runSuite(int size, Set<String> only) throws Exception {
+        long t0 = System.nanoTime();
+        Library lib = generate(size, 42);
+        System.out.printf("generated in %.1f s%n", (System.nanoTime() - t0) / 1e9);
+
+        String[] ids = new String[size];
+        for (int i = 0; i < size; i++) ids[i] = itemId(i);
+        String[] rareTerms = new String[1024];
+        Random rnd = new Random(7);
+        for (int i = 0; i < rareTerms.length; i++) rareTerms[i] = "volume " + rnd.nextInt(size);
+        List<Loan> history = new ArrayList<>(lib.allLoans());
+        LocalDate asOf = lib.today();
+        // items cycled through checkout/return; any loan the generator left open is closed first
+        String[] free = new String[Math.max(1, size / 100)];
+        for (int i = 0; i < free.length; i++) free[i] = ids[(i * 97) % size];
+
+        Map<String, Op> ops = new LinkedHashMap<>();
+        ops.put("searchByTitle.rare", i -> lib.searchByTitle(rareTerms[i & 1023]).size());
+        ops.put("searchByTitle.common", i -> lib.searchByTitle("the").size());
+        BookQuery facetQuery = new BookQuery().genre("Programming").years(2000, 2010).availableOnly();
+        ops.put("countBooks.facets", i -> lib.countBooks(facetQuery));
+        ops.put("findItemById", i -> lib.findItemById(ids[Math.floorMod(i * 31, size)]) == null ? 0 : 1);
+        ops.put("findLoanByItemId", i -> lib.findLoanByItemId(ids[Math.floorMod(i * 31, size)]) == null ? 0 : 1);
+        ops.put("calculateFine.history", i -> (long) lib.calculateFine(history.get(i % history.size()), asOf));
+        ops.put("overdueLoans", i -> lib.overdueLoans(asOf).size());
+        ops.put("finesOwedByMember", i -> lib.finesOwedByMember(asOf).size());
+
+        File dir = Files.createTempDirectory("library-bench").toFile();
+        String file = new File(dir, "library.dat").getPath();
+        ops.put("saveToFile", i -> { lib.saveToFile(file); return new File(file).length(); });
+        ops.put("loadFromFile", i -> Library.loadFromFile(file).allItems().size());
+        // last: every cycle adds a loan to the history the benchmarks above read
+        ops.put("checkoutAndReturn", i -> {
+            String id = free[i % free.length];
+            Loan open = lib.findLoanByItemId(id);
+            if (open != null) lib.returnItemByLoanId(open.getLoanId());
+            Loan l = lib.checkoutItem(id, memberId(i % Math.max(1, size / 10)));
+            return lib.returnItemByLoanId(l.getLoanId()).getLoanId().length();
+        });
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Op> e : ops.entrySet()) {
+                if (only != null && !only.contains(e.getKey())) continue;
+                if (e.getKey().equals("loadFromFile") && !new File(file).exists()) lib.saveToFile(file);
+                Result r = measure(e.getKey(), size, e.getValue());
+                results.add(r);
+                System.out.printf("  %-24s %,14.1f ns/op  +- %,.1f%n", r.name, r.nsPerOp, r.stddev);
+            }
+        } finally {
+            for (File f : Objects.requireNonNull(dir.listFiles())) f.delete();
+            dir.delete();
+        }
+        return results;
+    }
+
+    private static Result measure(String name, int size, Op op) throws Exception {
+        int[] counter = {0};
+        runFor(op, WARMUP_NANOS, counter);
+        double[] samples = new double[ITERATIONS];
+        for (int it = 0; it < ITERATIONS; it++) samples[it] = runFor(op, ITERATION_NANOS, counter);
+        double mean = Arrays.stream(samples).average().orElse(0);
+        double var = Arrays.stream(samples).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, samples.length - 1);
+        return new Result(name, size, mean, Math.sqrt(var));
+    }
+
+    // runs op in batches until the time budget is used, doubling the batch so timer reads stay negligible
+    private static double runFor(Op op, long budget, int[] counter) throws Exception {
+        long ops = 0, acc = 0, batch = 1;
+        long start = System.nanoTime(), elapsed;
+        do {
+            for (long b = 0; b < batch; b++) acc += op.run(counter[0]++);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            if (batch < 1 << 20) batch <<= 1;
+        } while (elapsed < budget);
+        sink += acc;
+        return elapsed / (double) ops;
+    }
+
+    // ---------- retained heap ----------
+    // each store stays reachable until after its measurement, or the collector would free it first.
+    // Every layout gets its own freshly built books, so no two share strings.
+    private static void measureHeap(int size) {
+        System.out.printf("== %,d items ==%n", size);
+        long base = usedHeap();
+        Map<String, LibraryItem> objects = new HashMap<>();
+        for (LibraryItem it : heapBooks(size)) objects.put(it.getId(), it);
+        long objectBytes = usedHeap() - base;
+        printHeap("map of Book objects", objectBytes, size);
+        Reference.reachabilityFence(objects);
+        objects = null;
+
+        base = usedHeap();
+        Library catalogue = new Library();
+        catalogue.addAll(heapBooks(size));
+        printHeap("Library catalogue", usedHeap() - base, size);
+        Reference.reachabilityFence(catalogue);
+        catalogue = null;
+
+        base = usedHeap();
+        CompactItemStore compact = CompactItemStore.of(heapBooks(size));
+        long compactBytes = usedHeap() - base;
+        printHeap("compact columns", compactBytes, size);
+        System.out.printf("  (columns retain %.0f%% of the map of objects)%n", 100.0 * compactBytes / objectBytes);
+        Reference.reachabilityFence(compact);
+        compact = null;
+
+        base = usedHeap();
+        Library full = generate(size, 42);
+        printHeap("with members, loans", usedHeap() - base, size);
+        Reference.reachabilityFence(full);
+    }
+
+    // fresh strings per book, as a CSV import produces them
+    private static List<LibraryItem> heapBooks(int size) {
+        List<LibraryItem> books = new ArrayList<>(size);
+        Random rnd = new Random(42);
+        for (int i = 0; i < size; i++) {
+            books.add(new Book(itemId(i), WORDS[rnd.nextInt(WORDS.length)] + " volume " + i, "Author " + rnd.nextInt(Math.max(1, size / 50)),
+                    1900 + rnd.nextInt(125), new String(GENRES[rnd.nextInt(GENRES.length)])));
+        }
+        return books;
+    }
+
+    private static void printHeap(String label, long bytes, int size) {
+        System.out.printf("  %-22s%,10.1f MB  %6.0f bytes/item%n", label, bytes / 1e6, bytes / (double) size);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // ---------- data generation ----------
+    static String itemId(int i) { return String.format("B%07d", i); }
+    static String memberId(int i) { return String.format("M%06d", i); }
+
+    static final String[] WORDS = {"the", "java", "history", "garden", "river", "silent", "code", "empire",
+            "night", "science", "winter", "machine", "ocean", "letters", "secret", "city"};
+    private static final String[] GENRES = {"Programming", "Fiction", "History", "Science", "Poetry", "Biography", "Travel", "Art"};
+
+    static Library generate(int size, long seed) {
+        Library lib = generate(size, seed, LocalDate.now());
+        lib.setClock(Clock.systemDefaultZone());
+        return lib;
+    }
+
+    // the same library for the same size, seed and date; its clock is left pinned to that date
+    static Library generate(int size, long seed, LocalDate today) {
+        Random rnd = new Random(seed);
+        Library lib = new Library();
+        List<LibraryItem> batch = new ArrayList<>(4096);
+        for (int i = 0; i < size; i++) {
+            String title = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)] + " volume " + i;
+            batch.add(new Book(itemId(i), title, "Author " + rnd.nextInt(Math.max(1, size / 50)),
+                    1900 + rnd.nextInt(125), GENRES[rnd.nextInt(GENRES.length)]));
+            if (batch.size() == 4096) { lib.addAll(batch); batch.clear(); }
+        }
+        lib.addAll(batch);
+        int members = Math.max(1, size / 10);
+        List<Member> ms = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) ms.add(new Member(memberId(i), "Member " + i, "m" + i + "@example.com"));
+        lib.addAllMembers(ms);
+
+        // one loan per book over the past year; every tenth book is still out
+        LocalDate start = today.minusDays(365);
+        for (int i = 0; i < size; i++) {
+            LocalDate day = start.plusDays(i % 350);
+            lib.setClock(Clock.fixed(day.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC));
+            Loan l = lib.checkoutItem(itemId(i), memberId(rnd.nextInt(members)));
+            if (i % 10 != 0) {
+                LocalDate back = day.plusDays(rnd.nextInt(21));
+                lib.setClock(Clock.fixed(back.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC));
+                lib.returnItemByLoanId(l.getLoanId());
+            }
+        }
+        lib.setClock(Clock.fixed(today.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC));
+        return lib;
+    }
+
+    // ---------- baseline ----------
+    private static void writeBaseline(List<Result> results, Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("benchmark,size,nsPerOp");
+            out.newLine();
+            for (Result r : results) {
+                out.write(String.format(Locale.ROOT, "%s,%d,%.1f", r.name, r.size, r.nsPerOp));
+                out.newLine();
+            }
+        }
+        System.out.println("Baseline written to " + file);
+    }
+
+    private static boolean compare(List<Result> results, Path file, double tolerance) throws IOException {
+        Map<String, Double> base = new HashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            String[] f = line.split(",");
+            if (f.length == 3 && !f[0].equals("benchmark")) base.put(f[0] + "@" + f[1], Double.parseDouble(f[2]));
+        }
+        boolean ok = true;
+        System.out.printf("Compared with %s (tolerance %.0f%%):%n", file, tolerance * 100);
+        for (Result r : results) {
+            Double before = base.get(r.name + "@" + r.size);
+            if (before == null) continue;
+            double change = r.nsPerOp / before - 1;
+            boolean regressed = change > tolerance;
+            ok &= !regressed;
+            System.out.printf("  %-24s %,10d  %+6.1f%%%s%n", r.name, r.size, change * 100, regressed ? "  REGRESSION" : "");
+        }
+        return ok;
+    }
+}
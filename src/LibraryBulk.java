@@ -0,0 +1,392 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// ---------- Bulk streaming import/export of books, members and loans ----------
+// Files are CSV, or JSON Lines when the name ends in .jsonl/.ndjson. Imports read the file once,
+// hand fixed-size chunks of lines to a parser pool, and insert each parsed chunk through the
+// batched Library.addAll/addAllMembers in file order. Only a bounded number of chunks is in flight,
+// so memory stays flat however large the file is. Exports stream from a LibraryView opened for the
+// export, so a file shows the library at one moment while writers carry on.
+//
+// Columns / keys:
+//   books    id,title,author,year,genre[,copies]   (copies defaults to 1)
+//   members  id,name,email
+//   loans    id,item,member,checkout,due,returned   (export only; dates ISO-8601, returned may be empty)
+// A CSV header line is optional. Quoted CSV fields may contain commas and doubled quotes but not newlines.
+class LibraryBulk {
+    private static final int CHUNK_LINES = 4096;
+    private static final int MAX_ERRORS = 20;
+
+    static final String[] BOOK_COLUMNS = {"id", "title", "author", "year", "genre", "copies"};
+    private static final Set<String> OPTIONAL_COLUMNS = Collections.singleton("copies"); // may be left off the end of a CSV row
+    static final String[] MEMBER_COLUMNS = {"id", "name", "email"};
+    static final String[] LOAN_COLUMNS = {"id", "item", "member", "checkout", "due", "returned"};
+
+    // outcome of one import; rejected lines are skipped, the first few reasons are kept
+    static class ImportResult {
+        long accepted, rejected;
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("Imported %d, rejected %d", accepted, rejected));
+            for (String e : errors) sb.append(System.lineSeparator()).append("  ").append(e);
+            if (rejected > errors.size()) sb.append(System.lineSeparator()).append("  ...");
+            return sb.toString();
+        }
+    }
+
+    interface RecordParser<T> { T parse(Map<String, String> fields); }
+
+    interface BatchSink<T> { void accept(List<T> batch); }
+
+    private static class Chunk<T> {
+        final List<T> records = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        long rejected;
+    }
+
+    // ---------- import ----------
+    static ImportResult importBooks(Library lib, Path file) throws IOException {
+        return importFile(file, BOOK_COLUMNS, LibraryBulk::parseBook, lib::addAll);
+    }
+
+    static ImportResult importMembers(Library lib, Path file) throws IOException {
+        return importFile(file, MEMBER_COLUMNS, LibraryBulk::parseMember, lib::addAllMembers);
+    }
+
+    static Book parseBook(Map<String, String> f) {
+        String year = require(f, "year");
+        int y;
+        try {
+            y = Integer.parseInt(year);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("year is not a number: " + year);
+        }
+        String copies = f.get("copies");
+        int c = 1;
+        if (copies != null && !copies.trim().isEmpty()) {
+            try {
+                c = Integer.parseInt(copies.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("copies is not a number: " + copies);
+            }
+            if (c < 1) throw new IllegalArgumentException("copies must be at least 1: " + copies);
+        }
+        return new Book(require(f, "id"), require(f, "title"), f.getOrDefault("author", ""), y, f.getOrDefault("genre", ""), c);
+    }
+
+    static Member parseMember(Map<String, String> f) {
+        String email = f.getOrDefault("email", "");
+        if (!email.isEmpty() && email.indexOf('@') < 0) throw new IllegalArgumentException("invalid email: " + email);
+        return new Member(require(f, "id"), require(f, "name"), email);
+    }
+
+    private static String require(Map<String, String> f, String key) {
+        String v = f.get(key);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("missing " + key);
+        return v.trim();
+    }
+
+    static <T> ImportResult importFile(Path file, String[] columns, RecordParser<T> parser, BatchSink<T> sink) throws IOException {
+        boolean json = isJsonLines(file);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-parse");
+            t.setDaemon(true);
+            return t;
+        });
+        ImportResult result = new ImportResult();
+        Deque<Future<Chunk<T>>> inFlight = new ArrayDeque<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            long firstLine = 1, lineNo = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (lineNo == 1 && !json && isHeader(line, columns)) { firstLine = 2; continue; }
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    inFlight.add(submit(pool, lines, firstLine, json, columns, parser));
+                    firstLine = lineNo + 1;
+                    lines = new ArrayList<>(CHUNK_LINES);
+                    if (inFlight.size() >= threads * 2) drain(inFlight.poll(), sink, result);
+                }
+            }
+            if (!lines.isEmpty()) inFlight.add(submit(pool, lines, firstLine, json, columns, parser));
+            while (!inFlight.isEmpty()) drain(inFlight.poll(), sink, result);
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    private static <T> Future<Chunk<T>> submit(ExecutorService pool, List<String> lines, long firstLine, boolean json,
+                                               String[] columns, RecordParser<T> parser) {
+        return pool.submit(() -> {
+            Chunk<T> chunk = new Chunk<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.trim().isEmpty()) continue;
+                try {
+                    chunk.records.add(parser.parse(json ? parseJsonObject(line) : parseCsvRecord(line, columns)));
+                } catch (RuntimeException e) {
+                    chunk.rejected++;
+                    if (chunk.errors.size() < MAX_ERRORS) chunk.errors.add("line " + (firstLine + i) + ": " + e.getMessage());
+                }
+            }
+            return chunk;
+        });
+    }
+
+    private static <T> void drain(Future<Chunk<T>> future, BatchSink<T> sink, ImportResult result) throws IOException {
+        Chunk<T> chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+        sink.accept(chunk.records);
+        result.accepted += chunk.records.size();
+        result.rejected += chunk.rejected;
+        for (String e : chunk.errors) if (result.errors.size() < MAX_ERRORS) result.errors.add(e);
+    }
+
+    private static boolean isJsonLines(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson");
+    }
+
+    private static boolean isHeader(String line, String[] columns) {
+        List<String> fields = splitCsv(line);
+        return !fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase(columns[0]);
+    }
+
+    // ---------- CSV ----------
+    static Map<String, String> parseCsvRecord(String line, String[] columns) {
+        List<String> fields = splitCsv(line);
+        int required = columns.length;
+        while (required > 0 && OPTIONAL_COLUMNS.contains(columns[required - 1])) required--;
+        if (fields.size() < required || fields.size() > columns.length) {
+            throw new IllegalArgumentException("expected " + columns.length + " fields, found " + fields.size());
+        }
+        Map<String, String> out = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) out.put(columns[i], fields.get(i));
+        return out;
+    }
+
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                    else quoted = false;
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        fields.add(cur.toString());
+        return fields;
+    }
+
+    static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // ---------- JSON Lines: one flat object per line with string, number, boolean or null values ----------
+    static Map<String, String> parseJsonObject(String line) {
+        Map<String, String> out = new HashMap<>();
+        int[] pos = {skipWs(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') { pos[0]++; return out; }
+        while (true) {
+            String key = jsonString(line, pos);
+            expect(line, pos, ':');
+            String value = peek(line, pos) == '"' ? jsonString(line, pos) : jsonBareValue(line, pos);
+            out.put(key, value);
+            char c = peek(line, pos);
+            pos[0]++;
+            if (c == '}') break;
+            if (c != ',') throw new IllegalArgumentException("expected ',' or '}' at column " + pos[0]);
+        }
+        if (skipWs(line, pos[0]) != line.length()) throw new IllegalArgumentException("trailing characters");
+        return out;
+    }
+
+    private static char peek(String s, int[] pos) {
+        pos[0] = skipWs(s, pos[0]);
+        if (pos[0] >= s.length()) throw new IllegalArgumentException("unexpected end of line");
+        return s.charAt(pos[0]);
+    }
+
+    private static void expect(String s, int[] pos, char c) {
+        if (peek(s, pos) != c) throw new IllegalArgumentException("expected '" + c + "' at column " + (pos[0] + 1));
+        pos[0]++;
+    }
+
+    private static int skipWs(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static String jsonString(String s, int[] pos) {
+        expect(s, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0];
+        while (true) {
+            if (i >= s.length()) throw new IllegalArgumentException("unterminated string");
+            char c = s.charAt(i++);
+            if (c == '"') break;
+            if (c != '\\') { sb.append(c); continue; }
+            if (i >= s.length()) throw new IllegalArgumentException("unterminated escape");
+            char e = s.charAt(i++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 > s.length()) throw new IllegalArgumentException("bad unicode escape");
+                    sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+        }
+        pos[0] = i;
+        return sb.toString();
+    }
+
+    private static String jsonBareValue(String s, int[] pos) {
+        int start = pos[0], i = start;
+        while (i < s.length() && ",}".indexOf(s.charAt(i)) < 0 && !Character.isWhitespace(s.charAt(i))) i++;
+        pos[0] = i;
+        String v = s.substring(start, i);
+        if (v.isEmpty()) throw new IllegalArgumentException("missing value at column " + (start + 1));
+        return v.equals("null") ? null : v;
+    }
+
+    static String json(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // ---------- export ----------
+    interface RowWriter<T> { String[] values(T record); }
+
+    // each export is written from a view, so the file is one consistent moment however long it takes
+    static long exportBooks(Library lib, Path file) throws IOException {
+        try (LibraryView view = lib.openView()) {
+            return export(file, BOOK_COLUMNS, new int[]{3, 5}, booksOf(view.allItems()), b ->
+                    new String[]{b.getId(), b.getTitle(), b.getAuthor(), String.valueOf(b.getYear()), b.getGenre(), String.valueOf(b.getCopies())});
+        }
+    }
+
+    static long exportMembers(Library lib, Path file) throws IOException {
+        try (LibraryView view = lib.openView()) {
+            return export(file, MEMBER_COLUMNS, new int[0], view.allMembers(), m ->
+                    new String[]{m.getMemberId(), m.getName(), m.getEmail()});
+        }
+    }
+
+    // loans in memory; archived loans stay in their segments
+    static long exportLoans(Library lib, Path file) throws IOException {
+        try (LibraryView view = lib.openView()) {
+            return export(file, LOAN_COLUMNS, new int[0], view.allLoans(), l ->
+                    new String[]{l.getLoanId(), l.getItemId(), l.getMemberId(), l.getCheckoutDate().toString(),
+                            l.getDueDate().toString(), l.getReturnDate() == null ? null : l.getReturnDate().toString()});
+        }
+    }
+
+    // lazily filters the item view down to books without copying it
+    private static Iterable<Book> booksOf(Iterable<LibraryItem> items) {
+        return () -> new Iterator<Book>() {
+            private final Iterator<LibraryItem> it = items.iterator();
+            private Book next = advance();
+
+            private Book advance() {
+                while (it.hasNext()) {
+                    LibraryItem i = it.next();
+                    if (i instanceof Book) return (Book) i;
+                }
+                return null;
+            }
+
+            @Override public boolean hasNext() { return next != null; }
+
+            @Override
+            public Book next() {
+                if (next == null) throw new NoSuchElementException();
+                Book b = next;
+                next = advance();
+                return b;
+            }
+        };
+    }
+
+    // numericColumns are written unquoted in JSON
+    private static <T> long export(Path file, String[] columns, int[] numericColumns, Iterable<T> records, RowWriter<T> row) throws IOException {
+        boolean json = isJsonLines(file);
+        boolean[] numeric = new boolean[columns.length];
+        for (int c : numericColumns) numeric[c] = true;
+        long count = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (!json) {
+                out.write(String.join(",", columns));
+                out.newLine();
+            }
+            StringBuilder line = new StringBuilder();
+            for (T record : records) {
+                String[] values = row.values(record);
+                line.setLength(0);
+                if (json) line.append('{');
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) line.append(',');
+                    if (json) line.append(json(columns[i])).append(':').append(numeric[i] ? values[i] : json(values[i]));
+                    else line.append(csv(values[i]));
+                }
+                if (json) line.append('}');
+                out.append(line);
+                out.newLine();
+                count++;
+            }
+        }
+        return count;
+    }
+}
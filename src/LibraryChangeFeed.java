@@ -0,0 +1,158 @@
+import java.io.*;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// ---------- Ordered change feed of Library mutations, for read replicas to follow ----------
+// The stream starts with [int magic][int version], then carries one frame per change:
+//   [long seq][long publishedAtMicros][int length][int crc32][payload]
+// The payload is the change's journal record, so a follower applies it with the journal's replay
+// code. Sequence numbers start at 1 with no gaps, in the order the changes were made; the first
+// frames rebuild the state the library had when the feed was opened. Writers only queue their
+// records; a daemon thread numbers, frames and writes them, flushing whenever the queue runs dry
+// and at least every FLUSH_MILLIS, and nothing is fsynced: the feed serves replicas, the journal
+// serves durability. A writer waits only when QUEUE_CAPACITY records are pending, which takes a
+// stalled disk or a named pipe whose reader has stopped.
+// A write error stops the feed and is reported once; the library carries on without it.
+class LibraryChangeFeed implements Closeable {
+    static final int MAGIC = 0x4C494246; // "LIBF"
+    static final int VERSION = 1;
+    static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final long FLUSH_MILLIS = 5;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private final String path;
+    private final DataOutputStream out;
+    private final BlockingQueue<Held> pending = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread flusher = new Thread(this::drain, "library-feed-flusher");
+
+    // out and seq belong to the thread writing the base until endBase, then to the flusher
+    private volatile long seq;
+    private boolean baseWritten;                          // guarded by this; until then the flusher waits
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private static final class Held {
+        final byte[] record;
+        final long at;
+
+        Held(byte[] record, long at) {
+            this.record = record;
+            this.at = at;
+        }
+    }
+
+    private LibraryChangeFeed(String path, OutputStream sink) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(sink, 1 << 20));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        flusher.setDaemon(true);
+    }
+
+    // truncates a file, or waits for a named pipe to be opened for reading
+    static LibraryChangeFeed open(String path) throws IOException {
+        LibraryChangeFeed f = new LibraryChangeFeed(path, new FileOutputStream(path));
+        f.flusher.start();
+        return f;
+    }
+
+    // called by writers inside their locks; never throws, since the change it describes is already made.
+    // The queue keeps the order writers publish in, which for changes to the same records is the
+    // order their locks gave them.
+    void publish(byte[] record) {
+        if (failure != null || closed) return;
+        try {
+            pending.put(new Held(record, nowMicros()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new InterruptedIOException("interrupted while the feed queue was full"));
+        }
+    }
+
+    // one record of the opening state; changes published meanwhile wait in the queue behind it
+    synchronized void publishBase(byte[] record) throws IOException {
+        if (failure != null) throw failure;
+        frame(record, nowMicros());
+    }
+
+    // the opening state is complete: the flusher takes over and writes the queued changes after it
+    synchronized void endBase() throws IOException {
+        if (failure != null) throw failure;
+        out.flush();
+        baseWritten = true;
+        notifyAll();
+    }
+
+    long lastSeq() { return seq; }
+
+    IOException failure() { return failure; }
+
+    private void drain() {
+        try {
+            synchronized (this) {
+                while (!baseWritten && !closed) wait();
+                if (!baseWritten) return;
+            }
+            boolean dirty = false;
+            while (failure == null) {
+                Held h = pending.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (h != null) {
+                    frame(h.record, h.at);
+                    dirty = true;
+                    if (!pending.isEmpty()) continue;
+                }
+                if (dirty) out.flush();
+                dirty = false;
+                if (h == null && closed && pending.isEmpty()) return;
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("feed flusher interrupted"));
+        } finally {
+            pending.clear(); // unblocks any writer still waiting; later publishes see the failure or the close
+        }
+    }
+
+    private void frame(byte[] record, long at) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeLong(++seq);
+        out.writeLong(at);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure != null) return;
+        failure = e;
+        System.err.println("Change feed " + path + " stopped at seq " + seq + ": " + e.getMessage());
+    }
+
+    static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    // writes out everything already queued, then closes the stream
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing the change feed");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.*;
+
+// ---------- Background checkpointer: snapshots written off the caller's thread ----------
+// One daemon thread saves the library to its file every interval, and whenever asked, but only if
+// something changed since the last checkpoint. saveToFile writes from a point-in-time view into a
+// temp file that is renamed into place, so a checkpoint never holds writers up and a crash mid-way
+// leaves the previous snapshot, plus the journal, intact. The latest outcome is kept for display.
+class LibraryCheckpointer implements AutoCloseable {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Library library;
+    private final String file;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-checkpointer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // written only by the checkpoint thread, or by close() once that thread has stopped
+    private volatile long savedChanges;          // library.changeCount() covered by the last snapshot
+    private volatile LocalDateTime lastWritten;  // null until the first checkpoint
+    private volatile long lastMillis;
+    private volatile LocalDateTime lastSkipped;  // latest check that found nothing to write
+    private volatile String lastError;           // null once a checkpoint succeeds
+
+    LibraryCheckpointer(Library library, String file) {
+        this.library = library;
+        this.file = file;
+        this.savedChanges = library.changeCount(); // what was loaded is already on disk or in the journal
+    }
+
+    void start(long intervalSeconds) {
+        executor.scheduleWithFixedDelay(this::checkpoint, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // queues a checkpoint and returns at once
+    Future<?> requestCheckpoint() { return executor.submit(this::checkpoint); }
+
+    private void checkpoint() {
+        long changes = library.changeCount(); // read before the view opens: later changes count as unsaved
+        if (changes == savedChanges) {
+            lastSkipped = LocalDateTime.now();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            library.saveToFile(file);
+            savedChanges = changes;
+            lastMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lastWritten = LocalDateTime.now();
+            lastError = null;
+        } catch (IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    // one line for the operator: when the last snapshot was written, how long it took, and whether it is current
+    String status() {
+        StringBuilder sb = new StringBuilder();
+        LocalDateTime written = lastWritten;
+        if (written == null) sb.append("No checkpoint written yet");
+        else sb.append("Last checkpoint ").append(TIME.format(written)).append(" (").append(lastMillis).append(" ms)");
+        LocalDateTime skipped = lastSkipped;
+        if (skipped != null && (written == null || skipped.isAfter(written))) {
+            sb.append(", unchanged as of ").append(TIME.format(skipped));
+        }
+        if (library.changeCount() != savedChanges) sb.append(", changes pending");
+        String error = lastError;
+        if (error != null) sb.append("; last attempt failed: ").append(error);
+        return sb.toString();
+    }
+
+    // stops the schedule, lets a running checkpoint finish, then writes a final one here if needed
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// ---------- Crash-recovery regression checks for snapshot + journal persistence ----------
+// usage: java LibraryCrashRecovery
+// Each scenario builds a small journaled library in a temp directory, leaves the files as a crash
+// at some point of a save would, loads them back and checks the copy counts and open loans.
+//   crash-before-journal-cut   the snapshot was renamed into place but the journal still holds
+//                              the records it covers; they must not be applied a second time
+//   journal-tail-after-save    a completed save, then more changes: only the new records replay
+//   replay-twice               applying the whole journal again over a loaded library changes nothing
+//   replay-twice-holds         the same with a waiting hold and a ready one holding the last copy
+//   added-copy-to-hold-queue   a copy added while members wait goes to the head of the queue,
+//                              not the shelf, and stays there after a reload
+// Exits with status 1 if any scenario fails.
+public class LibraryCrashRecovery {
+    private interface Scenario { String run(Path dir) throws Exception; } // null if it passed, else what went wrong
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Scenario> scenarios = new LinkedHashMap<>();
+        scenarios.put("crash-before-journal-cut", LibraryCrashRecovery::crashBeforeJournalCut);
+        scenarios.put("journal-tail-after-save", LibraryCrashRecovery::journalTailAfterSave);
+        scenarios.put("replay-twice", LibraryCrashRecovery::replayTwice);
+        scenarios.put("replay-twice-holds", LibraryCrashRecovery::replayTwiceHolds);
+        scenarios.put("added-copy-to-hold-queue", LibraryCrashRecovery::addedCopyToHoldQueue);
+
+        boolean ok = true;
+        for (Map.Entry<String, Scenario> e : scenarios.entrySet()) {
+            Path dir = Files.createTempDirectory("library-crash");
+            String failure;
+            try {
+                failure = e.getValue().run(dir);
+            } finally {
+                delete(dir.toFile());
+            }
+            System.out.printf("  %-26s %s%n", e.getKey(), failure == null ? "ok" : "FAIL: " + failure);
+            ok &= failure == null;
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) System.exit(1);
+    }
+
+    // a three-copy book and two members, saved, with the journal attached
+    private static Library seed(String file) throws IOException {
+        Library lib = new Library();
+        lib.openJournal(file);
+        lib.addItem(new Book("B001", "Crash course", "A. Author", 2001, "Programming", 3));
+        lib.addMember(new Member("M001", "Alice", "alice@example.com"));
+        lib.addMember(new Member("M002", "Bob", "bob@example.com"));
+        lib.saveToFile(file);
+        return lib;
+    }
+
+    private static String crashBeforeJournalCut(Path dir) throws Exception {
+        String file = dir.resolve("library.dat").toString();
+        Path journal = LibraryJournal.fileFor(file).toPath();
+        Library lib = seed(file);
+        lib.checkoutItem("B001", "M001");
+        byte[] uncut = Files.readAllBytes(journal);
+        lib.saveToFile(file);
+        lib.closeJournal();
+        Files.write(journal, uncut); // as if the process died between the snapshot rename and dropBefore
+        return expect(Library.loadFromFile(file), "B001", 2, 1);
+    }
+
+    private static String journalTailAfterSave(Path dir) throws Exception {
+        String file = dir.resolve("library.dat").toString();
+        Library lib = seed(file);
+        lib.checkoutItem("B001", "M001");
+        lib.saveToFile(file);
+        lib.checkoutItem("B001", "M002");
+        lib.closeJournal();
+        return expect(Library.loadFromFile(file), "B001", 1, 2);
+    }
+
+    private static String replayTwice(Path dir) throws Exception {
+        String file = dir.resolve("library.dat").toString();
+        Library lib = seed(file);
+        Loan first = lib.checkoutItem("B001", "M001");
+        lib.checkoutItem("B001", "M002");
+        lib.returnItemByLoanId(first.getLoanId());
+        lib.closeJournal();
+        Library loaded = Library.loadFromFile(file);
+        String failure = expect(loaded, "B001", 2, 1);
+        if (failure != null) return "first load: " + failure;
+        LibraryJournal.replay(LibraryJournal.fileFor(file), loaded, null);
+        failure = expect(loaded, "B001", 2, 1);
+        return failure == null ? null : "second replay: " + failure;
+    }
+
+    private static String replayTwiceHolds(Path dir) throws Exception {
+        String file = dir.resolve("library.dat").toString();
+        Library lib = seed(file);
+        lib.addItem(new Book("B002", "Last copy", "A. Author", 2002, "Programming", 1));
+        lib.addMember(new Member("M003", "Carol", "carol@example.com"));
+        Loan out = lib.checkoutItem("B002", "M001");
+        lib.placeHold("B002", "M002");
+        lib.placeHold("B002", "M003");
+        lib.returnItemByLoanId(out.getLoanId()); // M002's hold becomes ready and keeps the copy
+        lib.closeJournal();
+        Library loaded = Library.loadFromFile(file);
+        String failure = expectHolds(loaded, "B002", 2);
+        if (failure != null) return "first load: " + failure;
+        LibraryJournal.replay(LibraryJournal.fileFor(file), loaded, null);
+        failure = expectHolds(loaded, "B002", 2);
+        return failure == null ? null : "second replay: " + failure;
+    }
+
+    private static String addedCopyToHoldQueue(Path dir) throws Exception {
+        String file = dir.resolve("library.dat").toString();
+        Library lib = seed(file);
+        lib.addItem(new Book("B002", "Last copy", "A. Author", 2002, "Programming", 1));
+        lib.addMember(new Member("M003", "Carol", "carol@example.com"));
+        lib.checkoutItem("B002", "M001");
+        lib.placeHold("B002", "M002");
+        lib.placeHold("B002", "M003");
+        lib.setCopies("B002", 2); // the new copy is M002's, ahead of anyone without a hold
+        String failure = expectHeadReady(lib, "B002");
+        if (failure != null) return failure;
+        try {
+            lib.checkoutItem("B002", "M001");
+            return "a member without a hold checked out the added copy";
+        } catch (IllegalStateException expected) {
+        }
+        lib.closeJournal();
+        failure = expectHeadReady(Library.loadFromFile(file), "B002");
+        return failure == null ? null : "after reload: " + failure;
+    }
+
+    // one open loan, M002's hold ready with the added copy, M003 still waiting, none on the shelf
+    private static String expectHeadReady(Library lib, String itemId) {
+        String failure = expect(lib, itemId, 0, 1);
+        if (failure != null) return failure;
+        List<Hold> holds = lib.holdsForItem(itemId);
+        if (holds.size() != 2) return String.format("%s has %d holds, expected 2", itemId, holds.size());
+        boolean headReady = holds.get(0).getMemberId().equals("M002") && holds.get(0).isReady();
+        return headReady && !holds.get(1).isReady() ? null : "the added copy did not go to the head of the queue";
+    }
+
+    private static String expectHolds(Library lib, String itemId, int queued) {
+        String failure = expect(lib, itemId, 0, 0);
+        if (failure != null) return failure;
+        List<Hold> holds = lib.holdsForItem(itemId);
+        if (holds.size() != queued) return String.format("%s has %d holds, expected %d", itemId, holds.size(), queued);
+        if (!holds.get(0).isReady()) return "the first hold on " + itemId + " is not ready";
+        return null;
+    }
+
+    private static String expect(Library lib, String itemId, int available, int open) {
+        LibraryItem it = lib.findItemById(itemId);
+        if (it == null) return itemId + " is missing";
+        int loans = lib.openLoansForItem(itemId).size();
+        if (it.getAvailableCopies() != available || loans != open) {
+            return String.format("%s has %d available and %d open loans, expected %d and %d",
+                    itemId, it.getAvailableCopies(), loans, available, open);
+        }
+        return null;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) delete(c);
+        f.delete();
+    }
+}
@@ -0,0 +1,524 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// ---------- Conjunctive catalogue query: any combination of genre, author, year range, availability ----------
+// usage: library.findBooks(new BookQuery().genre("Programming").years(2000, 2010).availableOnly())
+class BookQuery {
+    String genre, author;
+    int fromYear = Integer.MIN_VALUE, toYear = Integer.MAX_VALUE;
+    boolean availableOnly;
+
+    BookQuery genre(String genre) { this.genre = genre; return this; }
+    BookQuery author(String author) { this.author = author; return this; }
+    BookQuery years(int from, int to) { this.fromYear = from; this.toYear = to; return this; }
+    BookQuery availableOnly() { this.availableOnly = true; return this; }
+
+    boolean hasYearRange() { return fromYear != Integer.MIN_VALUE || toYear != Integer.MAX_VALUE; }
+
+    @Override
+    public String toString() {
+        StringJoiner sj = new StringJoiner(", ", "[", "]");
+        if (genre != null) sj.add("genre=" + genre);
+        if (author != null) sj.add("author=" + author);
+        if (hasYearRange()) sj.add("years=" + fromYear + ".." + toYear);
+        if (availableOnly) sj.add("available");
+        return sj.toString();
+    }
+}
+
+// ---------- Bitmap indexes over item ordinals for faceted queries ----------
+// Every item gets a small int ordinal; each genre, author and publication year keeps a bitmap of
+// the ordinals of its books. A query intersects the bitmaps of its facets (a year range is the
+// union of its years first) and only materialises the items left in the result, so counting
+// never touches an item object at all.
+// Adding and removing items are a few bit flips under the write lock; queries share the read lock.
+// Availability changes on every checkout and return, so it stays off that lock: it is a plain bit
+// per ordinal in atomic pages, set by CAS and then re-checked against the item, so the bit always
+// settles on the item's current state. A query tests those bits as it goes, so it sees each
+// item's availability as of the moment it reads that bit.
+class FacetIndex {
+    enum Facet { GENRE, AUTHOR, YEAR }
+
+    private static final int PAGE_SHIFT = 16, PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>(); // read without the lock by availabilityChanged
+    private volatile Page[] pages = new Page[0]; // grown under the write lock; a page never moves once made
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>(); // reused so bitmaps stay dense
+    private int nextOrdinal;
+
+    private final CompressedBitmap all = new CompressedBitmap();
+    private final Map<String, CompressedBitmap> byGenre = new HashMap<>();   // lowercased genre
+    private final Map<String, CompressedBitmap> byAuthor = new HashMap<>();  // lowercased author
+    private final TreeMap<Integer, CompressedBitmap> byYear = new TreeMap<>();
+    private final Map<String, String> labels = new HashMap<>(); // lowercased key -> first spelling seen
+
+    void add(LibraryItem item) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = ordinals.get(item.getId());
+            if (existing != null) removeOrdinal(item.getId(), existing);
+            int ord = freeOrdinals.isEmpty() ? nextOrdinal++ : freeOrdinals.pop();
+            if (ord >>> PAGE_SHIFT == pages.length) {
+                Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+                grown[pages.length] = new Page();
+                pages = grown;
+            }
+            pages[ord >>> PAGE_SHIFT].items.set(ord & PAGE_MASK, item);
+            ordinals.put(item.getId(), ord);
+            all.add(ord);
+            syncAvailable(ord);
+            if (item instanceof Book) {
+                Book b = (Book) item;
+                if (b.getGenre() != null) bitmap(byGenre, b.getGenre()).add(ord);
+                if (b.getAuthor() != null) bitmap(byAuthor, b.getAuthor()).add(ord);
+                byYear.computeIfAbsent(b.getYear(), y -> new CompressedBitmap()).add(ord);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer ord = ordinals.get(id);
+            if (ord != null) removeOrdinal(id, ord);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeOrdinal(String id, int ord) {
+        LibraryItem item = item(ord);
+        all.remove(ord);
+        if (item instanceof Book) {
+            Book b = (Book) item;
+            if (b.getGenre() != null) clear(byGenre, key(b.getGenre()), ord);
+            if (b.getAuthor() != null) clear(byAuthor, key(b.getAuthor()), ord);
+            clear(byYear, b.getYear(), ord);
+        }
+        pages[ord >>> PAGE_SHIFT].items.set(ord & PAGE_MASK, null);
+        syncAvailable(ord);
+        ordinals.remove(id);
+        freeOrdinals.push(ord);
+    }
+
+    // takes no lock; if the ordinal has meanwhile passed to another item, that item's bit is refreshed instead
+    void availabilityChanged(LibraryItem item) {
+        Integer ord = ordinals.get(item.getId());
+        if (ord != null) syncAvailable(ord);
+    }
+
+    // sets the ordinal's bit from its item, repeating until neither the item nor its availability
+    // moved while the bit was written, so a writer that read a stale state always corrects itself
+    private void syncAvailable(int ord) {
+        Page p = pages[ord >>> PAGE_SHIFT];
+        int i = ord & PAGE_MASK;
+        long mask = 1L << i;
+        for (;;) {
+            LibraryItem item = p.items.get(i);
+            boolean want = item != null && item.isAvailable();
+            long word = p.available.get(i >>> 6);
+            long next = want ? word | mask : word & ~mask;
+            if (word != next && !p.available.compareAndSet(i >>> 6, word, next)) continue;
+            if (p.items.get(i) == item && (item != null && item.isAvailable()) == want) return;
+        }
+    }
+
+    private boolean isAvailable(int ord) {
+        return (pages[ord >>> PAGE_SHIFT].available.get((ord & PAGE_MASK) >>> 6) & (1L << ord)) != 0;
+    }
+
+    private LibraryItem item(int ord) { return pages[ord >>> PAGE_SHIFT].items.get(ord & PAGE_MASK); }
+
+    List<LibraryItem> find(BookQuery q) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap match = evaluate(q);
+            List<LibraryItem> out = new ArrayList<>(q.availableOnly ? 16 : match.cardinality());
+            match.forEach(ord -> {
+                if (!q.availableOnly || isAvailable(ord)) out.add(item(ord));
+            });
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int count(BookQuery q) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap match = evaluate(q);
+            if (!q.availableOnly) return match.cardinality();
+            int n = 0;
+            if (match == all) { // every available bit belongs to a live item, so a popcount will do
+                for (Page p : pages) for (int w = 0; w < p.available.length(); w++) n += Long.bitCount(p.available.get(w));
+                return n;
+            }
+            int[] counted = {0};
+            match.forEach(ord -> { if (isAvailable(ord)) counted[0]++; });
+            return counted[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // how many matches of q fall under each value of a facet, largest first; values with none are left out
+    LinkedHashMap<String, Integer> facetCounts(Facet facet, BookQuery q) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap match = evaluate(q);
+            if (q.availableOnly) match = match.filter(this::isAvailable);
+            List<Map.Entry<String, Integer>> counts = new ArrayList<>();
+            if (facet == Facet.YEAR) {
+                for (Map.Entry<Integer, CompressedBitmap> e : byYear.entrySet()) {
+                    int n = e.getValue().andCardinality(match);
+                    if (n > 0) counts.add(new AbstractMap.SimpleEntry<>(String.valueOf(e.getKey()), n));
+                }
+            } else {
+                for (Map.Entry<String, CompressedBitmap> e : (facet == Facet.GENRE ? byGenre : byAuthor).entrySet()) {
+                    int n = e.getValue().andCardinality(match);
+                    if (n > 0) counts.add(new AbstractMap.SimpleEntry<>(labels.get(e.getKey()), n));
+                }
+            }
+            counts.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            LinkedHashMap<String, Integer> out = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> e : counts) out.put(e.getKey(), e.getValue());
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // caller holds the read lock; the smallest bitmaps are intersected first. Availability is not
+    // applied here: callers test each result's bit, as the bits are not a bitmap to intersect.
+    private CompressedBitmap evaluate(BookQuery q) {
+        List<CompressedBitmap> terms = new ArrayList<>();
+        if (q.genre != null) terms.add(byGenre.getOrDefault(key(q.genre), CompressedBitmap.EMPTY));
+        if (q.author != null) terms.add(byAuthor.getOrDefault(key(q.author), CompressedBitmap.EMPTY));
+        if (q.hasYearRange()) {
+            CompressedBitmap years = new CompressedBitmap();
+            if (q.fromYear <= q.toYear) {
+                for (CompressedBitmap b : byYear.subMap(q.fromYear, true, q.toYear, true).values()) years = years.or(b);
+            }
+            terms.add(years);
+        }
+        if (terms.isEmpty()) return all;
+        terms.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+        CompressedBitmap result = terms.get(0);
+        for (int i = 1; i < terms.size() && result.cardinality() > 0; i++) result = result.and(terms.get(i));
+        return result;
+    }
+
+    private CompressedBitmap bitmap(Map<String, CompressedBitmap> index, String value) {
+        String k = key(value);
+        labels.putIfAbsent(k, value);
+        return index.computeIfAbsent(k, x -> new CompressedBitmap());
+    }
+
+    private static <K> void clear(Map<K, CompressedBitmap> index, K k, int ord) {
+        CompressedBitmap b = index.get(k);
+        if (b == null) return;
+        b.remove(ord);
+        if (b.cardinality() == 0) index.remove(k);
+    }
+
+    private static String key(String value) { return value.trim().toLowerCase(Locale.ROOT); }
+
+    // 65536 ordinals: their items and one availability bit each
+    private static final class Page {
+        final AtomicReferenceArray<LibraryItem> items = new AtomicReferenceArray<>(1 << PAGE_SHIFT);
+        final AtomicLongArray available = new AtomicLongArray((1 << PAGE_SHIFT) / 64);
+    }
+}
+
+// ---------- Compressed bitmap of non-negative ints, in the style of Roaring ----------
+// The int space is cut into chunks of 65536 keyed by the high 16 bits. A sparse chunk stores its
+// low halves as a sorted char array (2 bytes per value, up to 4096 values); a dense one switches
+// to a plain 8 KB bitset. Intersections and unions work chunk by chunk and skip chunks missing
+// on either side. Not thread-safe; FacetIndex guards it.
+class CompressedBitmap {
+    static final CompressedBitmap EMPTY = new CompressedBitmap();
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size;      // chunks in use
+    private int cardinality;
+
+    void add(int x) {
+        int i = find((char) (x >>> 16));
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, (char) (x >>> 16), new ArrayContainer());
+        }
+        Container c = containers[i];
+        if (c.add((char) x)) {
+            cardinality++;
+            if (c instanceof ArrayContainer && c.cardinality() > ARRAY_MAX) containers[i] = ((ArrayContainer) c).toBitmap();
+        }
+    }
+
+    void remove(int x) {
+        int i = find((char) (x >>> 16));
+        if (i < 0) return;
+        Container c = containers[i];
+        if (!c.remove((char) x)) return;
+        cardinality--;
+        if (c.cardinality() == 0) removeChunk(i);
+        else if (c instanceof BitmapContainer && c.cardinality() <= ARRAY_MAX / 2) containers[i] = ((BitmapContainer) c).toArray();
+    }
+
+    boolean contains(int x) {
+        int i = find((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    int cardinality() { return cardinality; }
+
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) containers[i].forEach(keys[i] << 16, action);
+    }
+
+    // the values that pass keep; they arrive in order, so each add appends
+    CompressedBitmap filter(IntPredicate keep) {
+        CompressedBitmap out = new CompressedBitmap();
+        forEach(x -> { if (keep.test(x)) out.add(x); });
+        return out;
+    }
+
+    CompressedBitmap and(CompressedBitmap o) {
+        CompressedBitmap out = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j]) i++;
+            else if (keys[i] > o.keys[j]) j++;
+            else {
+                Container c = containers[i].and(o.containers[j]);
+                if (c.cardinality() > 0) out.appendChunk(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    int andCardinality(CompressedBitmap o) {
+        int n = 0, i = 0, j = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j]) i++;
+            else if (keys[i] > o.keys[j]) j++;
+            else n += containers[i++].and(o.containers[j++]).cardinality();
+        }
+        return n;
+    }
+
+    CompressedBitmap or(CompressedBitmap o) {
+        CompressedBitmap out = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j])) { out.appendChunk(keys[i], containers[i].copy()); i++; }
+            else if (i == size || keys[i] > o.keys[j]) { out.appendChunk(o.keys[j], o.containers[j].copy()); j++; }
+            else { out.appendChunk(keys[i], containers[i].or(o.containers[j])); i++; j++; }
+        }
+        return out;
+    }
+
+    private int find(char key) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else if (keys[mid] > key) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private void insertChunk(int at, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, keys.length);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = c;
+        size++;
+    }
+
+    private void appendChunk(char key, Container c) {
+        insertChunk(size, key, c);
+        cardinality += c.cardinality();
+    }
+
+    private void removeChunk(int at) {
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        containers[--size] = null;
+    }
+
+    // ---------- per-chunk containers ----------
+    private abstract static class Container {
+        abstract boolean add(char x);
+        abstract boolean remove(char x);
+        abstract boolean contains(char x);
+        abstract int cardinality();
+        abstract void forEach(int high, IntConsumer action);
+        abstract Container copy();
+
+        Container and(Container o) {
+            if (this instanceof BitmapContainer && o instanceof BitmapContainer) return ((BitmapContainer) this).and((BitmapContainer) o);
+            ArrayContainer small = (ArrayContainer) (this instanceof ArrayContainer ? this : o);
+            Container other = small == this ? o : this;
+            ArrayContainer out = new ArrayContainer(Math.min(small.n, other.cardinality()));
+            for (int k = 0; k < small.n; k++) if (other.contains(small.values[k])) out.values[out.n++] = small.values[k];
+            return out;
+        }
+
+        Container or(Container o) {
+            if (cardinality() + o.cardinality() <= ARRAY_MAX && this instanceof ArrayContainer && o instanceof ArrayContainer) {
+                return ((ArrayContainer) this).merge((ArrayContainer) o);
+            }
+            BitmapContainer out = this instanceof BitmapContainer ? (BitmapContainer) copy() : ((ArrayContainer) this).toBitmap();
+            if (o instanceof BitmapContainer) out.orInPlace((BitmapContainer) o);
+            else { ArrayContainer a = (ArrayContainer) o; for (int k = 0; k < a.n; k++) out.add(a.values[k]); }
+            return out;
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int n;
+
+        ArrayContainer() { this(4); }
+        ArrayContainer(int capacity) { values = new char[Math.max(1, capacity)]; }
+
+        @Override
+        boolean add(char x) {
+            int i = Arrays.binarySearch(values, 0, n, x);
+            if (i >= 0) return false;
+            i = -i - 1;
+            if (n == values.length) values = Arrays.copyOf(values, n * 2);
+            System.arraycopy(values, i, values, i + 1, n - i);
+            values[i] = x;
+            n++;
+            return true;
+        }
+
+        @Override
+        boolean remove(char x) {
+            int i = Arrays.binarySearch(values, 0, n, x);
+            if (i < 0) return false;
+            System.arraycopy(values, i + 1, values, i, n - i - 1);
+            n--;
+            return true;
+        }
+
+        @Override boolean contains(char x) { return Arrays.binarySearch(values, 0, n, x) >= 0; }
+        @Override int cardinality() { return n; }
+        @Override void forEach(int high, IntConsumer action) { for (int k = 0; k < n; k++) action.accept(high | values[k]); }
+
+        @Override
+        Container copy() {
+            ArrayContainer c = new ArrayContainer(n);
+            System.arraycopy(values, 0, c.values, 0, n);
+            c.n = n;
+            return c;
+        }
+
+        ArrayContainer merge(ArrayContainer o) {
+            ArrayContainer out = new ArrayContainer(n + o.n);
+            int i = 0, j = 0;
+            while (i < n || j < o.n) {
+                char v;
+                if (j == o.n || (i < n && values[i] < o.values[j])) v = values[i++];
+                else if (i == n || values[i] > o.values[j]) v = o.values[j++];
+                else { v = values[i++]; j++; }
+                out.values[out.n++] = v;
+            }
+            return out;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int k = 0; k < n; k++) b.add(values[k]);
+            return b;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[1024];
+        int n;
+
+        @Override
+        boolean add(char x) {
+            long before = words[x >>> 6];
+            words[x >>> 6] = before | (1L << x);
+            if (before == words[x >>> 6]) return false;
+            n++;
+            return true;
+        }
+
+        @Override
+        boolean remove(char x) {
+            long before = words[x >>> 6];
+            words[x >>> 6] = before & ~(1L << x);
+            if (before == words[x >>> 6]) return false;
+            n--;
+            return true;
+        }
+
+        @Override boolean contains(char x) { return (words[x >>> 6] & (1L << x)) != 0; }
+        @Override int cardinality() { return n; }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer c = new BitmapContainer();
+            System.arraycopy(words, 0, c.words, 0, words.length);
+            c.n = n;
+            return c;
+        }
+
+        Container and(BitmapContainer o) {
+            BitmapContainer out = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                out.words[w] = words[w] & o.words[w];
+                out.n += Long.bitCount(out.words[w]);
+            }
+            return out.n <= ARRAY_MAX ? out.toArray() : out;
+        }
+
+        void orInPlace(BitmapContainer o) {
+            n = 0;
+            for (int w = 0; w < words.length; w++) {
+                words[w] |= o.words[w];
+                n += Long.bitCount(words[w]);
+            }
+        }
+
+        ArrayContainer toArray() {
+            ArrayContainer a = new ArrayContainer(n);
+            forEach(0, v -> a.values[a.n++] = (char) v);
+            return a;
+        }
+    }
+}
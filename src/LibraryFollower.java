@@ -0,0 +1,170 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// ---------- Read replica kept current from a primary's change feed ----------
+// usage: java LibraryFollower <feed-file | -> [--serve port] [--bind address] [--report seconds]
+// Tails the feed a primary writes (java LibraryManagementSystem --feed <path>): a file, polled at
+// its end for more, or standard input ("-"), such as a named pipe redirected in. Every frame is
+// checked, its crc and that its sequence number follows the last one, then applied to a read-only
+// Library as one mutation, so readers of the replica, the HTTP server included, only ever see
+// whole changes in the primary's order. Lag is measured per change, from publication on the
+// primary to being applied here; both ends read the wall clock, so across machines it includes
+// their clock offset. Loans the primary archives at a save stay in the replica's memory.
+class LibraryFollower implements Runnable, Closeable {
+    private static final long POLL_MILLIS = 1;
+
+    private final Library replica = new Library();
+    private final InputStream source;
+
+    private volatile long appliedSeq;
+    private volatile long lastLagMicros;
+    private volatile long maxLagMicros;
+    private volatile boolean stopped;
+    private volatile Exception failure; // set when following stops on a bad or truncated feed
+    private final LatencyHistogram lag = new LatencyHistogram(); // micros, since the last report
+
+    LibraryFollower(InputStream source) {
+        this.source = source;
+        replica.setReadOnly();
+    }
+
+    // follows a file from its start, waiting at its end for the primary to append more
+    static LibraryFollower tail(String file) throws IOException {
+        return new LibraryFollower(new TailInputStream(file));
+    }
+
+    Library replica() { return replica; }
+    long appliedSeq() { return appliedSeq; }
+    Exception failure() { return failure; }
+
+    @Override
+    public void run() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source, 1 << 16))) {
+            if (in.readInt() != LibraryChangeFeed.MAGIC) throw new IOException("Not a library change feed");
+            int version = in.readInt();
+            if (version != LibraryChangeFeed.VERSION) throw new IOException("Unsupported change feed version " + version);
+            while (true) {
+                long seq;
+                try {
+                    seq = in.readLong();
+                } catch (EOFException e) {
+                    return; // the primary closed the feed, or we were stopped
+                }
+                long publishedAt = in.readLong();
+                int len = in.readInt();
+                int crc = in.readInt();
+                if (len < 0 || len > LibraryChangeFeed.MAX_RECORD) throw new IOException("Corrupt frame length at seq " + seq);
+                byte[] record = new byte[len];
+                in.readFully(record);
+                CRC32 check = new CRC32();
+                check.update(record);
+                if ((int) check.getValue() != crc) throw new IOException("Corrupt frame at seq " + seq);
+                if (seq != appliedSeq + 1) throw new IOException("Change feed jumped from seq " + appliedSeq + " to " + seq);
+                replica.applyReplicated(record);
+                appliedSeq = seq;
+                long micros = Math.max(0, LibraryChangeFeed.nowMicros() - publishedAt);
+                lag.record(micros);
+                lastLagMicros = micros;
+                if (micros > maxLagMicros) maxLagMicros = micros;
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            if (!stopped) {
+                failure = e;
+                System.err.println("Follower stopped at seq " + appliedSeq + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // one line: how far the replica has got and how far behind it runs, since the previous call
+    String report() {
+        String line = String.format("seq %,d  items %,d  members %,d  loans %,d  lag last %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                appliedSeq, replica.allItems().size(), replica.allMembers().size(), replica.allLoans().size(),
+                lastLagMicros / 1e3, lag.percentile(0.50) / 1e3, lag.percentile(0.99) / 1e3, maxLagMicros / 1e3);
+        lag.reset();
+        maxLagMicros = 0;
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        if (source instanceof TailInputStream) ((TailInputStream) source).stop(); // the follower's thread closes it
+        else source.close();
+    }
+
+    // ---------- a file read as if it were a pipe: at its end, wait for more instead of returning -1 ----------
+    private static final class TailInputStream extends InputStream {
+        private final FileChannel channel;
+        private volatile boolean stopped;
+
+        TailInputStream(String file) throws IOException {
+            this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        }
+
+        void stop() { stopped = true; }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                int n = channel.read(ByteBuffer.wrap(b, off, len));
+                if (n > 0) return n;
+                if (stopped) return -1;
+                if (channel.size() < channel.position()) {
+                    throw new IOException("Change feed was truncated; the primary reopened it, so start a new follower");
+                }
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException { channel.close(); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: java LibraryFollower <feed-file | -> [--serve port] [--bind address] [--report seconds]");
+            System.exit(2);
+        }
+        int port = -1;
+        InetAddress bind = InetAddress.getLoopbackAddress(); // a wider bind must be asked for
+        long reportSeconds = 5;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--serve": port = Integer.parseInt(args[++i]); break;
+                case "--bind": bind = InetAddress.getByName(args[++i]); break;
+                case "--report": reportSeconds = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        LibraryFollower follower = args[0].equals("-") ? new LibraryFollower(System.in) : tail(args[0]);
+        Thread applier = new Thread(follower, "library-follower");
+        applier.start();
+        if (port >= 0) {
+            LibraryServer server = new LibraryServer(follower.replica(), bind, port);
+            server.start();
+            System.out.println("Replica served read-only on " + server.address());
+        }
+        while (applier.isAlive()) {
+            applier.join(reportSeconds * 1000);
+            System.out.println(follower.report());
+        }
+        if (follower.failure() != null) System.exit(1);
+    }
+}
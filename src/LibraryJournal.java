@@ -0,0 +1,409 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+// ---------- Append-only write-ahead journal of Library mutations ----------
+// The file starts with [int magic "LIBJ"][long generation], then each record is framed as
+// [int length][int crc32][payload]. Appends are buffered in memory and made durable by group
+// commit: the first committer to arrive writes and fsyncs everything buffered so far, and every
+// other committer whose record was in that batch just waits for it.
+// A snapshot records the generation and offset it covers. Dropping the covered head always writes
+// a new file with a fresh generation, so on load an unchanged generation means the snapshot landed
+// but the journal was never cut, and the records before the offset must be skipped; any other
+// generation means the journal only holds records the snapshot has not seen. Journals from before
+// the header have no magic and count as generation 0.
+class LibraryJournal implements Closeable {
+    static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x4C49424A; // "LIBJ"; as a legacy record length it would exceed MAX_RECORD
+    private static final int HEADER = 12;
+    private static final long COMPACT_BYTES = 4L * 1024 * 1024; // fold into the snapshot past this size
+    private static final int MAX_RECORD = 16 * 1024 * 1024;      // anything larger is a corrupt length
+    private static final SecureRandom GENERATIONS = new SecureRandom();
+
+    // record types
+    private static final byte ADD_BOOK = 1;
+    private static final byte ADD_ITEM = 2; // any other LibraryItem, Java-serialized
+    private static final byte REMOVE_ITEM = 3;
+    private static final byte ADD_MEMBER = 4;
+    private static final byte CHECKOUT = 5;
+    private static final byte RETURN = 6;
+    private static final byte HOLD = 7;
+    private static final byte HOLD_READY = 8;
+    private static final byte HOLD_ENDED = 9; // cancelled, expired or picked up
+
+    private final String snapshotFile;
+    private FileChannel channel; // replaced, under this, when a snapshot drops the head of the file
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedSeq, durableSeq;
+    private long generation;
+    private long size;
+    private boolean flushing, compactionQueued;
+    private IOException failure;
+
+    // a point in one generation of the journal: the records before offset are covered by a snapshot
+    static final class Mark {
+        final long generation, offset;
+
+        Mark(long generation, long offset) {
+            this.generation = generation;
+            this.offset = offset;
+        }
+    }
+
+    private LibraryJournal(String snapshotFile, FileChannel channel, long generation, long size) {
+        this.snapshotFile = snapshotFile;
+        this.channel = channel;
+        this.generation = generation;
+        this.size = size;
+    }
+
+    static File fileFor(String snapshotFile) { return new File(snapshotFile + SUFFIX); }
+
+    // opens the journal belonging to a snapshot file for appending, dropping any torn tail from a crash
+    static LibraryJournal open(String snapshotFile) throws IOException {
+        Path path = fileFor(snapshotFile).toPath();
+        long generation = -1, valid = 0;
+        if (Files.exists(path) && Files.size(path) > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                generation = readGeneration(in);
+                valid = generation == 0 ? 0 : HEADER;
+                byte[] rec;
+                while ((rec = readRecord(in)) != null) valid += 8 + rec.length;
+            }
+            if (generation == 0 && valid == 0) generation = -1; // nothing intact, so start it afresh with a header
+        }
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (generation < 0) { // new, or empty after a crash while it was being created
+            generation = newGeneration();
+            ByteBuffer header = header(generation);
+            while (header.hasRemaining()) ch.write(header, header.position());
+            ch.force(false);
+            valid = HEADER;
+        }
+        ch.truncate(valid);
+        ch.position(valid);
+        return new LibraryJournal(snapshotFile, ch, generation, valid);
+    }
+
+    String snapshotFile() { return snapshotFile; }
+
+    private static long newGeneration() {
+        long g;
+        do g = GENERATIONS.nextLong(); while (g <= 0);
+        return g;
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER);
+        b.putInt(MAGIC).putLong(generation).flip();
+        return b;
+    }
+
+    // the generation in the header, leaving in at the first record; 0, reading nothing, for a legacy journal
+    private static long readGeneration(DataInputStream in) throws IOException {
+        in.mark(HEADER);
+        try {
+            if (in.readInt() == MAGIC) return in.readLong();
+        } catch (EOFException e) {
+            // shorter than a header: legacy, and at most a torn record
+        }
+        in.reset();
+        return 0;
+    }
+
+    // buffers one record and returns its sequence number for commit
+    synchronized long append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen writing to memory
+        }
+        size += 8 + payload.length;
+        return ++appendedSeq;
+    }
+
+    // blocks until the record with the given sequence number is on disk
+    void commit(long seq) throws IOException {
+        while (true) {
+            ByteBuffer batch;
+            long upTo;
+            FileChannel ch;
+            synchronized (this) {
+                while (flushing && durableSeq < seq && failure == null) waitUninterruptibly();
+                if (failure != null) throw failure;
+                if (durableSeq >= seq) return;
+                flushing = true;
+                batch = ByteBuffer.wrap(pending.toByteArray());
+                pending = new ByteArrayOutputStream();
+                upTo = appendedSeq;
+                ch = channel;
+            }
+            IOException error = null;
+            try {
+                while (batch.hasRemaining()) ch.write(batch);
+                ch.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                flushing = false;
+                if (error == null) durableSeq = upTo;
+                else failure = error; // the batch is gone; refuse further commits rather than leave a hole
+                notifyAll();
+            }
+        }
+    }
+
+    // the end of what has been appended so far, on disk or not; a snapshot taken now covers every
+    // record before it
+    synchronized Mark mark() { return new Mark(generation, size); }
+
+    // called once a snapshot covering everything before mark is safely on disk, and recording that
+    // mark. Records appended since then are copied to a new file, under a new generation, that
+    // atomically replaces this one. A crash before the rename leaves the old generation, whose
+    // covered records the load skips by the snapshot's mark; after it, only uncovered records remain.
+    synchronized void dropBefore(Mark mark) throws IOException {
+        while (flushing) waitUninterruptibly();
+        if (failure != null) throw failure;
+        if (mark.generation != generation) return; // already dropped by a later snapshot
+        ByteBuffer batch = ByteBuffer.wrap(pending.toByteArray());
+        while (batch.hasRemaining()) channel.write(batch);
+        pending = new ByteArrayOutputStream();
+        long end = channel.position();
+        long from = mark.offset;
+        long next = newGeneration();
+        Path path = fileFor(snapshotFile).toPath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = header(next);
+            while (header.hasRemaining()) out.write(header);
+            for (long pos = from; pos < end; ) pos += channel.transferTo(pos, end - pos, out);
+            out.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel old = channel;
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(HEADER + end - from);
+        old.close();
+        generation = next;
+        durableSeq = appendedSeq;
+        size = channel.position();
+        notifyAll();
+    }
+
+    // queues a background snapshot of the library once the journal has grown large
+    void compactIfNeeded(Library library) {
+        synchronized (this) {
+            if (compactionQueued || size < COMPACT_BYTES) return;
+            compactionQueued = true;
+        }
+        compactor.execute(() -> {
+            try {
+                library.saveToFile(snapshotFile);
+            } catch (IOException e) {
+                System.err.println("Journal compaction failed: " + e.getMessage());
+            } finally {
+                synchronized (this) { compactionQueued = false; }
+            }
+        });
+    }
+
+    private void waitUninterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        compactor.shutdown();
+        channel.close();
+    }
+
+    // ---------- record encoding ----------
+    interface Body { void write(DataOutputStream out) throws IOException; }
+
+    private static byte[] record(byte type, Body body) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeByte(type);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    static byte[] addItem(LibraryItem item) {
+        if (item.getClass() == Book.class) {
+            Book b = (Book) item;
+            return record(ADD_BOOK, out -> {
+                out.writeUTF(b.getId());
+                out.writeUTF(b.getTitle());
+                out.writeUTF(b.getAuthor());
+                out.writeInt(b.getYear());
+                out.writeUTF(b.getGenre());
+                out.writeInt(b.getCopies());
+            });
+        }
+        return record(ADD_ITEM, out -> {
+            ByteArrayOutputStream obj = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(obj)) { oos.writeObject(item); }
+            out.writeInt(obj.size());
+            obj.writeTo(out);
+        });
+    }
+
+    static byte[] removeItem(String id) {
+        return record(REMOVE_ITEM, out -> out.writeUTF(id));
+    }
+
+    static byte[] addMember(Member m) {
+        return record(ADD_MEMBER, out -> {
+            out.writeUTF(m.getMemberId());
+            out.writeUTF(m.getName());
+            out.writeUTF(m.getEmail());
+        });
+    }
+
+    static byte[] checkout(Loan l) {
+        return record(CHECKOUT, out -> {
+            out.writeUTF(l.getLoanId());
+            out.writeUTF(l.getItemId());
+            out.writeUTF(l.getMemberId());
+            out.writeLong(l.getCheckoutDate().toEpochDay());
+            out.writeLong(l.getDueDate().toEpochDay());
+        });
+    }
+
+    static byte[] returned(Loan l) {
+        return record(RETURN, out -> {
+            out.writeUTF(l.getLoanId());
+            out.writeLong(l.getReturnDate().toEpochDay());
+        });
+    }
+
+    static byte[] hold(Hold h) {
+        return record(HOLD, out -> {
+            out.writeUTF(h.getHoldId());
+            out.writeUTF(h.getItemId());
+            out.writeUTF(h.getMemberId());
+            out.writeLong(h.getPlacedOn().toEpochDay());
+            out.writeLong(h.getExpiresOn().toEpochDay());
+        });
+    }
+
+    static byte[] holdReady(Hold h) {
+        return record(HOLD_READY, out -> {
+            out.writeUTF(h.getHoldId());
+            out.writeLong(h.getReadyOn().toEpochDay());
+            out.writeLong(h.getExpiresOn().toEpochDay());
+        });
+    }
+
+    static byte[] holdEnded(String holdId) {
+        return record(HOLD_ENDED, out -> out.writeUTF(holdId));
+    }
+
+    // ---------- replay ----------
+
+    // applies every intact record in the journal file to the library, except those the snapshot it
+    // was loaded from already covers (covered may be null: nothing is); returns the number applied
+    static int replay(File file, Library lib, Mark covered) throws IOException, ClassNotFoundException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long generation = readGeneration(in);
+            long pos = generation == 0 ? 0 : HEADER;
+            long skipBefore = covered != null && covered.generation == generation ? covered.offset : 0;
+            byte[] rec;
+            while ((rec = readRecord(in)) != null) {
+                if (pos >= skipBefore) {
+                    apply(rec, lib);
+                    count++;
+                }
+                pos += 8 + rec.length;
+            }
+        }
+        return count;
+    }
+
+    // one record's payload, as journaled or as published on a change feed
+    static void apply(byte[] record, Library lib) throws IOException, ClassNotFoundException {
+        apply(new DataInputStream(new ByteArrayInputStream(record)), lib);
+    }
+
+    private static void apply(DataInputStream in, Library lib) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_BOOK: {
+                String id = in.readUTF(), title = in.readUTF(), author = in.readUTF();
+                int year = in.readInt();
+                String genre = in.readUTF();
+                // older journals end the record with an availability flag, which loans now determine
+                int copies = in.available() >= 4 ? in.readInt() : 1;
+                lib.restoreItem(new Book(id, title, author, year, genre, copies));
+                break;
+            }
+            case ADD_ITEM: {
+                byte[] obj = new byte[in.readInt()];
+                in.readFully(obj);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(obj))) {
+                    lib.restoreItem((LibraryItem) ois.readObject());
+                }
+                break;
+            }
+            case REMOVE_ITEM: lib.restoreRemoval(in.readUTF()); break;
+            case ADD_MEMBER: lib.restoreMember(new Member(in.readUTF(), in.readUTF(), in.readUTF())); break;
+            case CHECKOUT:
+                lib.restoreLoan(new Loan(in.readUTF(), in.readUTF(), in.readUTF(),
+                        LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong())));
+                break;
+            case RETURN: lib.restoreReturn(in.readUTF(), LocalDate.ofEpochDay(in.readLong())); break;
+            case HOLD:
+                lib.restoreHold(new Hold(in.readUTF(), in.readUTF(), in.readUTF(),
+                        LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong())));
+                break;
+            case HOLD_READY:
+                lib.restoreHoldReady(in.readUTF(), LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong()));
+                break;
+            case HOLD_ENDED: lib.restoreHoldEnded(in.readUTF()); break;
+            default: throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    // next intact record payload, or null at end of file or at a torn/corrupt tail
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int len = in.readInt();
+            int crc = in.readInt();
+            if (len < 0 || len > MAX_RECORD) return null;
+            byte[] payload = new byte[len];
+            in.readFully(payload);
+            CRC32 check = new CRC32();
+            check.update(payload);
+            return (int) check.getValue() == crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// ---------- Local load generator for LibraryServer ----------
+// usage: java LibraryLoadClient [baseUrl] [clients] [seconds]
+// Each client loops over a search / checkout / return mix (70/15/15) against ids fetched from the
+// server, then throughput, latency percentiles and status counts are reported. 409s are expected:
+// clients race for the same items, and those rejections are the server doing its job.
+public class LibraryLoadClient {
+    private static final Pattern ID = Pattern.compile("\"id\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ExecutorService executor = LibraryServer.newRequestExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(5)).build();
+        List<String> items = ids(http, base + "/items?limit=5000");
+        List<String> members = ids(http, base + "/members?limit=1000");
+        if (items.isEmpty() || members.isEmpty()) {
+            System.out.println("Server has no items or members to exercise.");
+            return;
+        }
+        String[] terms = searchTerms(http, base);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Stats>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            long seed = c;
+            results.add(executor.submit(() -> runClient(http, base, items, members, terms, deadline, new Random(seed))));
+        }
+        Stats total = new Stats();
+        for (Future<Stats> f : results) total.merge(f.get());
+        executor.shutdownNow();
+
+        long[] lat = Arrays.copyOf(total.latencies, total.count);
+        Arrays.sort(lat);
+        System.out.printf("%d clients, %d s: %d requests, %.0f req/s%n", clients, seconds, total.count, total.count / (double) seconds);
+        System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f%n",
+                pct(lat, 0.50), pct(lat, 0.90), pct(lat, 0.99), lat.length == 0 ? 0 : lat[lat.length - 1] / 1e6);
+        System.out.printf("status: 2xx=%d 409=%d other=%d errors=%d%n", total.ok, total.conflict, total.other, total.errors);
+    }
+
+    private static class Stats {
+        long[] latencies = new long[1024];
+        int count;
+        long ok, conflict, other, errors;
+
+        void record(long nanos, int status) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+            if (status / 100 == 2) ok++;
+            else if (status == 409) conflict++;
+            else other++;
+        }
+
+        void merge(Stats s) {
+            if (count + s.count > latencies.length) latencies = Arrays.copyOf(latencies, count + s.count);
+            System.arraycopy(s.latencies, 0, latencies, count, s.count);
+            count += s.count;
+            ok += s.ok;
+            conflict += s.conflict;
+            other += s.other;
+            errors += s.errors;
+        }
+    }
+
+    private static Stats runClient(HttpClient http, String base, List<String> items, List<String> members,
+                                   String[] terms, long deadline, Random rnd) {
+        Stats stats = new Stats();
+        while (System.nanoTime() < deadline) {
+            int op = rnd.nextInt(100);
+            HttpRequest req;
+            if (op < 70) {
+                req = get(base + "/search?limit=20&q=" + enc(terms[rnd.nextInt(terms.length)]));
+            } else if (op < 85) {
+                req = post(base + "/checkout?item=" + enc(items.get(rnd.nextInt(items.size())))
+                        + "&member=" + enc(members.get(rnd.nextInt(members.size()))));
+            } else {
+                req = post(base + "/return?item=" + enc(items.get(rnd.nextInt(items.size()))));
+            }
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> resp = http.send(req, HttpResponse.BodyHandlers.discarding());
+                stats.record(System.nanoTime() - start, resp.statusCode());
+            } catch (Exception e) {
+                stats.errors++;
+            }
+        }
+        return stats;
+    }
+
+    // a few three-letter fragments of real titles, so searches hit the index rather than miss outright
+    private static String[] searchTerms(HttpClient http, String base) throws Exception {
+        String body = http.send(get(base + "/items?limit=200"), HttpResponse.BodyHandlers.ofString()).body();
+        Matcher m = Pattern.compile("\"title\":\"([^\"\\\\]{3,})").matcher(body);
+        List<String> terms = new ArrayList<>();
+        while (m.find()) terms.add(m.group(1).substring(0, 3));
+        if (terms.isEmpty()) terms.add("the");
+        return terms.toArray(new String[0]);
+    }
+
+    private static List<String> ids(HttpClient http, String url) throws Exception {
+        String body = http.send(get(url), HttpResponse.BodyHandlers.ofString()).body();
+        List<String> ids = new ArrayList<>();
+        Matcher m = ID.matcher(body);
+        while (m.find()) ids.add(m.group(1));
+        return ids;
+    }
+
+    private static HttpRequest get(String url) { return HttpRequest.newBuilder(URI.create(url)).GET().build(); }
+
+    private static HttpRequest post(String url) { return HttpRequest.newBuilder(URI.create(url)).POST(HttpRequest.BodyPublishers.noBody()).build(); }
+
+    private static String enc(String s) { return URLEncoder.encode(s, StandardCharsets.UTF_8); }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
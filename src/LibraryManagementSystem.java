@@ -1,26 +1,128 @@
 
 import java.io.*;
+import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.function.Supplier;
+import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import javax.management.JMException;
 
 // ---------- Abstract base class demonstrating inheritance & polymorphism ----------
+// An item may stand for several identical copies; availableCopies counts those on the shelf and
+// only ever moves by compare-and-set, so checkouts of one title contend on nothing but that counter.
 abstract class LibraryItem implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final AtomicIntegerFieldUpdater<LibraryItem> AVAILABLE =
+            AtomicIntegerFieldUpdater.newUpdater(LibraryItem.class, "availableCopies");
     protected final String id; // unique identifier
     protected String title;
-    protected boolean available = true;
+    private volatile int copies;
+    private volatile int availableCopies;
+    transient Library owner; // library whose indexes track this item, if any
 
     public LibraryItem(String id, String title) {
+        this(id, title, 1);
+    }
+
+    protected LibraryItem(String id, String title, int copies) {
+        if (copies < 1) throw new IllegalArgumentException("An item needs at least one copy");
         this.id = id;
         this.title = title;
+        this.copies = copies;
+        this.availableCopies = copies;
     }
 
     public String getId() { return id; }
     public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
-    public boolean isAvailable() { return available; }
-    public void setAvailable(boolean available) { this.available = available; }
+    public void setTitle(String title) {
+        changing();
+        this.title = title;
+        if (owner != null) owner.titleChanged(this);
+    }
+    public int getCopies() { return copies; }
+    public int getAvailableCopies() { return availableCopies; }
+    public boolean isAvailable() { return availableCopies > 0; }
+    // puts every copy on the shelf, or none
+    public void setAvailable(boolean available) {
+        changing();
+        availableCopies = available ? copies : 0;
+        availabilityChanged();
+    }
+
+    // takes one copy off the shelf; false if none is left
+    boolean checkOutCopy() {
+        changing();
+        for (;;) {
+            int n = availableCopies;
+            if (n <= 0) return false;
+            if (AVAILABLE.compareAndSet(this, n, n - 1)) {
+                if (n == 1) availabilityChanged();
+                return true;
+            }
+        }
+    }
+
+    // puts one copy back; never beyond the number owned
+    void returnCopy() {
+        changing();
+        for (;;) {
+            int n = availableCopies;
+            if (n >= copies) return;
+            if (AVAILABLE.compareAndSet(this, n, n + 1)) {
+                if (n == 0) availabilityChanged();
+                return;
+            }
+        }
+    }
+
+    // changes the number owned, keeping the copies on loan on loan; false if more than that are out
+    boolean changeCopies(int newCopies) {
+        changing();
+        int delta = newCopies - copies;
+        if (delta >= 0) {
+            copies = newCopies; // raise the ceiling first so a concurrent return is not refused
+            if (AVAILABLE.getAndAdd(this, delta) == 0 && delta > 0) availabilityChanged();
+            return true;
+        }
+        for (;;) {
+            int n = availableCopies;
+            if (n + delta < 0) return false;
+            if (AVAILABLE.compareAndSet(this, n, n + delta)) break;
+        }
+        copies = newCopies;
+        if (availableCopies == 0) availabilityChanged();
+        return true;
+    }
+
+    // sets the shelf count from the loans on record, before the item is published to other threads
+    void resetAvailableCopies(int onLoan) {
+        changing();
+        availableCopies = Math.max(0, copies - onLoan);
+    }
+
+    private void availabilityChanged() {
+        if (owner != null) owner.availabilityChanged(this);
+    }
+
+    // lets the owner's open views keep this item as it was before the change about to be made
+    private void changing() {
+        Library o = owner;
+        if (o != null) o.itemChanging(id);
+    }
+
+    // items serialized before copy counts existed have neither field; availability is rebuilt from loans
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (copies == 0) {
+            copies = 1;
+            availableCopies = 1;
+        }
+    }
 
     // polymorphic string describing the item
     public abstract String getDetails();
@@ -34,7 +136,11 @@ class Book extends LibraryItem {
     private String genre;
 
     public Book(String id, String title, String author, int year, String genre) {
-        super(id, title);
+        this(id, title, author, year, genre, 1);
+    }
+
+    public Book(String id, String title, String author, int year, String genre, int copies) {
+        super(id, title, copies);
         this.author = author;
         this.year = year;
         this.genre = genre;
@@ -46,7 +152,8 @@ class Book extends LibraryItem {
 
     @Override
     public String getDetails() {
-        return String.format("Book[id=%s,title=%s,author=%s,year=%d,genre=%s,available=%s]", id, title, author, year, genre, available);
+        String stock = getCopies() == 1 ? "available=" + isAvailable() : "available=" + getAvailableCopies() + "/" + getCopies();
+        return String.format("Book[id=%s,title=%s,author=%s,year=%d,genre=%s,%s]", id, getTitle(), author, year, genre, stock);
     }
 }
 
@@ -83,7 +190,7 @@ class Loan implements Serializable {
     private final String memberId;
     private final LocalDate checkoutDate;
     private final LocalDate dueDate;
-    private LocalDate returnDate = null;
+    private volatile LocalDate returnDate = null;
 
     public Loan(String loanId, String itemId, String memberId, LocalDate checkoutDate, LocalDate dueDate) {
         this.loanId = loanId;
@@ -102,15 +209,14 @@ class Loan implements Serializable {
 
     public void markReturned(LocalDate returnedOn) { this.returnDate = returnedOn; }
 
-    public boolean isOverdue() {
-        LocalDate check = (returnDate == null) ? LocalDate.now() : returnDate;
-        return check.isAfter(dueDate);
+    // an open loan is judged against asOf, a returned one against its return date
+    public boolean isOverdue(LocalDate asOf) {
+        return daysOverdue(asOf) > 0;
     }
 
-    public long daysOverdue() {
-        LocalDate check = (returnDate == null) ? LocalDate.now() : returnDate;
-        if (!check.isAfter(dueDate)) return 0;
-        return Duration.between(dueDate.atStartOfDay(), check.atStartOfDay()).toDays();
+    public long daysOverdue(LocalDate asOf) {
+        LocalDate check = (returnDate == null) ? asOf : returnDate;
+        return Math.max(0, check.toEpochDay() - dueDate.toEpochDay());
     }
 
     @Override
@@ -119,25 +225,404 @@ class Loan implements Serializable {
     }
 }
 
-// ---------- The core Library class: manages items, members, and loans ----------
+// ---------- A member's reservation of an item ----------
+// A hold waits in its item's queue until a copy comes back; it is then ready, with that copy set
+// aside for the member until they pick it up. Either way it lapses on expiresOn.
+class Hold {
+    private final String holdId;
+    private final String itemId;
+    private final String memberId;
+    private final LocalDate placedOn;
+    private volatile LocalDate readyOn; // null while waiting
+    private volatile LocalDate expiresOn;
+
+    public Hold(String holdId, String itemId, String memberId, LocalDate placedOn, LocalDate expiresOn) {
+        this.holdId = holdId;
+        this.itemId = itemId;
+        this.memberId = memberId;
+        this.placedOn = placedOn;
+        this.expiresOn = expiresOn;
+    }
+
+    public String getHoldId() { return holdId; }
+    public String getItemId() { return itemId; }
+    public String getMemberId() { return memberId; }
+    public LocalDate getPlacedOn() { return placedOn; }
+    public LocalDate getReadyOn() { return readyOn; }
+    public LocalDate getExpiresOn() { return expiresOn; }
+    public boolean isReady() { return readyOn != null; }
+
+    void markReady(LocalDate on, LocalDate pickUpBy) {
+        this.readyOn = on;
+        this.expiresOn = pickUpBy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Hold[id=%s,item=%s,member=%s,placed=%s,%s,expires=%s]", holdId, itemId, memberId, placedOn,
+                readyOn == null ? "waiting" : "ready=" + readyOn, expiresOn);
+    }
+}
+
+// ---------- Hold queue for one item ----------
+// Waiting holds in FIFO order, plus the ready ones that each have a copy set aside. Library makes
+// compound changes while holding the queue's monitor, which every method here also takes.
+class HoldQueue {
+    private final ArrayDeque<Hold> waiting = new ArrayDeque<>();
+    private final Map<String, Hold> ready = new LinkedHashMap<>(); // memberId -> hold
+
+    synchronized void add(Hold h) {
+        if (h.isReady()) ready.put(h.getMemberId(), h);
+        else waiting.add(h);
+    }
+
+    synchronized boolean hasWaiting() { return !waiting.isEmpty(); }
+    synchronized Hold peekWaiting() { return waiting.peek(); }
+    synchronized Hold pollWaiting() { return waiting.poll(); }
+    synchronized Hold readyFor(String memberId) { return ready.get(memberId); }
+    synchronized int readyCount() { return ready.size(); }
+
+    synchronized boolean contains(Hold h) {
+        return h.isReady() ? ready.get(h.getMemberId()) == h : waiting.contains(h);
+    }
+
+    synchronized boolean hasMember(String memberId) {
+        if (ready.containsKey(memberId)) return true;
+        for (Hold h : waiting) if (h.getMemberId().equals(memberId)) return true;
+        return false;
+    }
+
+    synchronized boolean remove(Hold h) {
+        return h.isReady() ? ready.remove(h.getMemberId(), h) : waiting.remove(h);
+    }
+
+    // 1 for the next in line; 0 if the hold is ready or gone
+    synchronized int position(Hold h) {
+        int i = 1;
+        for (Hold w : waiting) {
+            if (w == h) return i;
+            i++;
+        }
+        return 0;
+    }
+
+    // ready holds first, then waiting ones in queue order
+    synchronized List<Hold> snapshot() {
+        List<Hold> out = new ArrayList<>(ready.values());
+        out.addAll(waiting);
+        return out;
+    }
+}
+
+// ---------- Trigram inverted index over item titles ----------
+// Safe for concurrent readers; writers for the same id must be serialized by the caller.
+class TitleIndex {
+    private static final int GRAM = 3;
+
+    private final Map<String, String> lowered = new ConcurrentHashMap<>();        // itemId -> lowercased title
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();  // trigram -> itemIds
+    private final Set<String> shortTitles = ConcurrentHashMap.newKeySet();        // titles too short to hold a trigram
+
+    public void add(String id, String title) {
+        remove(id);
+        String t = title.toLowerCase();
+        lowered.put(id, t);
+        if (t.length() < GRAM) { shortTitles.add(id); return; }
+        for (String g : grams(t)) {
+            postings.compute(g, (k, ids) -> {
+                if (ids == null) ids = ConcurrentHashMap.newKeySet();
+                ids.add(id);
+                return ids;
+            });
+        }
+    }
+
+    public void remove(String id) {
+        String t = lowered.remove(id);
+        if (t == null) return;
+        if (t.length() < GRAM) { shortTitles.remove(id); return; }
+        for (String g : grams(t)) {
+            postings.computeIfPresent(g, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    // ids of items whose lowercased title contains the lowercased term
+    public List<String> search(String term) {
+        String t = term.toLowerCase();
+        List<String> results = new ArrayList<>();
+        for (String id : candidates(t)) {
+            String title = lowered.get(id); // null if removed while we were searching
+            if (title != null && title.contains(t)) results.add(id);
+        }
+        return results;
+    }
+
+    private Collection<String> candidates(String t) {
+        if (t.isEmpty()) return lowered.keySet();
+        if (t.length() < GRAM) {
+            // every occurrence in a longer title lies inside one of its trigrams
+            Set<String> ids = new HashSet<>(shortTitles);
+            for (Map.Entry<String, Set<String>> e : postings.entrySet()) {
+                if (e.getKey().contains(t)) ids.addAll(e.getValue());
+            }
+            return ids;
+        }
+        // any posting list is a superset of the matches; the smallest is cheapest to verify
+        Set<String> best = null;
+        for (String g : grams(t)) {
+            Set<String> ids = postings.get(g);
+            if (ids == null) return Collections.emptySet();
+            if (best == null || ids.size() < best.size()) best = ids;
+        }
+        return best;
+    }
+
+    private static Set<String> grams(String t) {
+        Set<String> out = new HashSet<>();
+        for (int i = 0; i + GRAM <= t.length(); i++) out.add(t.substring(i, i + GRAM));
+        return out;
+    }
+}
+
+// ---------- The core Library class: manages items, members, loans and holds ----------
+// Thread-safe: adding, removing or re-stocking an item happens under that item's lock stripe, so
+// operations on different items proceed in parallel. Checkout and return take no item lock at all:
+// they move the item's available-copies counter by CAS, so even a hot title with many copies only
+// contends on that counter. A returned copy goes straight to the head of the item's hold queue,
+// if it has one, under that queue's monitor; holds and returns of one item serialize only there.
+// With a journal attached, each mutation is appended to it and made durable before returning;
+// with a change feed attached, it is also published there for read replicas to follow.
+// Long reads and saves go through a LibraryView, a point-in-time copy-on-write view, so they see
+// one consistent state without holding writers off.
+// Public operations record their latency in `metrics`, readable from the CLI and over JMX.
 class Library implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int LOCK_STRIPES = 256; // power of two
 
-    private final Map<String, LibraryItem> items = new HashMap<>();
-    private final Map<String, Member> members = new HashMap<>();
-    private final Map<String, Loan> loans = new HashMap<>();
+    private final Map<String, LibraryItem> items = new ConcurrentHashMap<>();
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, Loan> loans = new ConcurrentHashMap<>();
+
+    // derived state, rebuilt on load by readResolve
+    private final transient TitleIndex titleIndex = new TitleIndex();
+    private final transient FacetIndex facets = new FacetIndex(); // genre/author/year/availability bitmaps
+    // itemId -> loanId -> loan; per-item maps are never removed, so a checkout cannot index into a dropped one
+    private final transient Map<String, Map<String, Loan>> openLoansByItem = new ConcurrentHashMap<>();
+    private final transient Map<String, Map<String, Loan>> openLoansByMember = new ConcurrentHashMap<>(); // memberId -> loanId -> loan
+    private final transient Object[] itemLocks = newLocks();
+    // mutations share this; saving a snapshot takes it exclusively so the journal can be reset
+    private final transient ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private transient volatile LibraryJournal journal;
+    private transient volatile LoanArchive archive; // returned loans leave `loans` for here at each save
+    // open loans ordered by due date, then loan id; a return removes its entry, so nothing empty is left behind
+    private final transient ConcurrentSkipListSet<Loan> openLoansByDueDay = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong((Loan l) -> l.getDueDate().toEpochDay()).thenComparing(Loan::getLoanId));
+    private transient volatile Clock clock = Clock.systemDefaultZone();
+    // holds: a queue per item that has ever had one, and every live hold bucketed by expiry day
+    private final transient Map<String, HoldQueue> holdQueues = new ConcurrentHashMap<>();
+    private final transient Map<String, Hold> holds = new ConcurrentHashMap<>(); // holdId -> hold
+    private final transient ConcurrentSkipListMap<Long, Set<Hold>> holdsByExpiryDay = new ConcurrentSkipListMap<>();
+    private final transient LibraryMetrics metrics = new LibraryMetrics(); // per-operation counts and latencies
+    // point-in-time views being read; writers copy a record into each before changing it
+    private final transient List<LibraryView> views = new CopyOnWriteArrayList<>();
+    private final transient ReentrantLock saveLock = new ReentrantLock(); // one snapshot write at a time
+    private final transient LongAdder changes = new LongAdder(); // mutations, for skipping unchanged checkpoints
+    private transient volatile LibraryChangeFeed feed;
+    private transient volatile boolean readOnly; // a replica: changes arrive only from its primary's feed
 
     // basic configuration
     private final int loanDays = 14;
     private final double finePerDay = 0.50; // currency units per day
+    private final int holdWaitDays = 90;    // an unfilled hold lapses after this long
+    private final int holdPickupDays = 7;   // a ready hold keeps its copy this long
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+        return locks;
+    }
+
+    private Object lockFor(String itemId) {
+        int h = itemId.hashCode();
+        return itemLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    // dates: everything that needs "today" reads this clock, so tests and batch runs can pin it
+    public void setClock(Clock clock) { this.clock = clock; }
+    public LocalDate today() { return LocalDate.now(clock); }
+
+    LibraryMetrics metrics() { return metrics; }
+
+    // mutations so far; every one passes through log(), journal or not
+    long changeCount() { return changes.sum(); }
+
+    // views: opening one waits out in-flight mutations, then costs nothing until writers change something
+    public LibraryView openView() {
+        checkpointLock.writeLock().lock();
+        try {
+            return registerView();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    // caller holds the checkpoint write lock
+    private LibraryView registerView() {
+        LibraryJournal j = journal;
+        LibraryView view = new LibraryView(this, items, members, loans, holdQueues, j == null ? null : j.mark());
+        views.add(view);
+        return view;
+    }
+
+    void closeView(LibraryView view) { views.remove(view); }
+
+    // called by writers, under the same locks as the change, before they make it
+    void itemChanging(String id) {
+        if (!views.isEmpty()) for (LibraryView v : views) v.items.keep(id);
+    }
+
+    private void memberChanging(String memberId) {
+        if (!views.isEmpty()) for (LibraryView v : views) v.members.keep(memberId);
+    }
+
+    private void loanChanging(String loanId) {
+        if (!views.isEmpty()) for (LibraryView v : views) v.loans.keep(loanId);
+    }
+
+    // caller holds q
+    private void holdsChanging(String itemId, HoldQueue q) {
+        if (!views.isEmpty()) for (LibraryView v : views) v.holds.keep(itemId, q);
+    }
+
+    // journal: log() runs inside the mutation's locks so records keep their order, commit() outside them.
+    // The change feed is handed the same record at the same point, so it sees them in that order too.
+    private long log(Supplier<byte[]> record) {
+        changes.increment();
+        LibraryJournal j = journal;
+        LibraryChangeFeed f = feed;
+        if (j == null && f == null) return 0;
+        byte[] bytes = record.get();
+        if (f != null) f.publish(bytes);
+        return j == null ? 0 : j.append(bytes);
+    }
+
+    private void commit(long seq) {
+        LibraryJournal j = journal;
+        if (j == null || seq == 0) return;
+        try {
+            j.commit(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal write failed", e);
+        }
+        j.compactIfNeeded(this);
+    }
 
     // items
     public void addItem(LibraryItem item) {
-        items.put(item.getId(), item);
+        checkWritable();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                seq = putItem(item);
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            commit(seq);
+            ok = true;
+        } finally {
+            metrics.record(LibraryMetrics.Op.ADD_ITEM, start, ok);
+        }
+    }
+
+    // batched addItem: one checkpoint-lock acquisition and one journal commit for the whole batch
+    public void addAll(Collection<? extends LibraryItem> batch) {
+        checkWritable();
+        long seq = 0;
+        checkpointLock.readLock().lock();
+        try {
+            for (LibraryItem item : batch) seq = Math.max(seq, putItem(item));
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+    }
+
+    private long putItem(LibraryItem item) {
+        synchronized (lockFor(item.getId())) {
+            item.resetAvailableCopies(copiesOut(item.getId())); // the loans and holds on record decide, not the object
+            itemChanging(item.getId());
+            LibraryItem old = items.put(item.getId(), item);
+            if (old != null && old != item) old.owner = null;
+            item.owner = this;
+            titleIndex.add(item.getId(), item.getTitle());
+            facets.add(item);
+            return log(() -> LibraryJournal.addItem(item));
+        }
+    }
+
+    // replay of an added item, member or removal: the same change, without the public method's checks and metrics
+    void restoreItem(LibraryItem item) { putItem(item); }
+    void restoreMember(Member m) { putMember(m); }
+
+    void restoreRemoval(String id) {
+        synchronized (lockFor(id)) {
+            unlinkItem(id);
+        }
     }
 
     public LibraryItem removeItem(String id) {
-        return items.remove(id);
+        checkWritable();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            LibraryItem it;
+            long seq = 0;
+            checkpointLock.readLock().lock();
+            try {
+                synchronized (lockFor(id)) {
+                    it = unlinkItem(id);
+                    if (it != null) seq = log(() -> LibraryJournal.removeItem(id));
+                }
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            commit(seq);
+            ok = true;
+            return it;
+        } finally {
+            metrics.record(LibraryMetrics.Op.REMOVE_ITEM, start, ok);
+        }
+    }
+
+    // caller holds the item's lock
+    private LibraryItem unlinkItem(String id) {
+        itemChanging(id);
+        LibraryItem it = items.remove(id);
+        if (it != null) {
+            it.owner = null;
+            titleIndex.remove(id);
+            facets.remove(id);
+            dropHolds(id);
+        }
+        return it;
+    }
+
+    void titleChanged(LibraryItem item) {
+        synchronized (lockFor(item.getId())) {
+            if (items.get(item.getId()) == item) titleIndex.add(item.getId(), item.getTitle());
+        }
+    }
+
+    // no item lock: this runs under hold queues, which are locked after items elsewhere. The facet
+    // index ignores an item it no longer holds and reads the availability afresh under its own lock.
+    void availabilityChanged(LibraryItem item) {
+        facets.availabilityChanged(item);
     }
 
     public LibraryItem findItemById(String id) {
@@ -145,80 +630,768 @@ class Library implements Serializable {
     }
 
     public List<LibraryItem> searchByTitle(String term) {
-        List<LibraryItem> results = new ArrayList<>();
-        for (LibraryItem it : items.values()) {
-            if (it.getTitle().toLowerCase().contains(term.toLowerCase())) results.add(it);
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<LibraryItem> results = new ArrayList<>();
+            for (String id : titleIndex.search(term)) {
+                LibraryItem it = items.get(id);
+                if (it != null) results.add(it);
+            }
+            ok = true;
+            return results;
+        } finally {
+            metrics.record(LibraryMetrics.Op.SEARCH, start, ok);
         }
-        return results;
     }
 
     public Collection<LibraryItem> allItems() { return items.values(); }
 
+    // faceted queries, answered by intersecting bitmaps rather than scanning items
+    public List<LibraryItem> findBooks(BookQuery query) { return facets.find(query); }
+    public int countBooks(BookQuery query) { return facets.count(query); }
+    public Map<String, Integer> facetCounts(FacetIndex.Facet facet, BookQuery query) { return facets.facetCounts(facet, query); }
+
     // members
-    public void addMember(Member m) { members.put(m.getMemberId(), m); }
+    public void addMember(Member m) {
+        checkWritable();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                seq = putMember(m);
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            commit(seq);
+            ok = true;
+        } finally {
+            metrics.record(LibraryMetrics.Op.ADD_MEMBER, start, ok);
+        }
+    }
+
+    // batched addMember, committed to the journal once
+    public void addAllMembers(Collection<Member> batch) {
+        checkWritable();
+        long seq = 0;
+        checkpointLock.readLock().lock();
+        try {
+            for (Member m : batch) seq = Math.max(seq, putMember(m));
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+    }
+
+    private long putMember(Member m) {
+        synchronized (lockFor(m.getMemberId())) { // keeps re-registrations of one id in journal order
+            memberChanging(m.getMemberId());
+            members.put(m.getMemberId(), m);
+            return log(() -> LibraryJournal.addMember(m));
+        }
+    }
+
     public Member findMember(String memberId) { return members.get(memberId); }
     public Collection<Member> allMembers() { return members.values(); }
 
     // loans
     public Loan checkoutItem(String itemId, String memberId) throws IllegalStateException {
-        LibraryItem it = items.get(itemId);
-        if (it == null) throw new IllegalStateException("Item not found");
-        if (!it.isAvailable()) throw new IllegalStateException("Item is already checked out");
-        if (!members.containsKey(memberId)) throw new IllegalStateException("Member not found");
+        checkWritable();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Loan loan;
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                LibraryItem it = items.get(itemId);
+                if (it == null) throw new IllegalStateException("Item not found");
+                seq = pickUpHold(itemId, memberId);
+                if (seq < 0) {
+                    if (!it.isAvailable()) throw new IllegalStateException(unavailable(it));
+                    if (!members.containsKey(memberId)) throw new IllegalStateException("Member not found");
+                    if (!it.checkOutCopy()) throw new IllegalStateException(unavailable(it)); // lost the race for the last copy
+                    seq = 0;
+                }
 
-        String loanId = UUID.randomUUID().toString();
-        LocalDate checkout = LocalDate.now();
-        LocalDate due = checkout.plusDays(loanDays);
-        Loan loan = new Loan(loanId, itemId, memberId, checkout, due);
-        loans.put(loanId, loan);
-        it.setAvailable(false);
-        return loan;
+                String loanId = UUID.randomUUID().toString();
+                LocalDate checkout = today();
+                LocalDate due = checkout.plusDays(loanDays);
+                loan = new Loan(loanId, itemId, memberId, checkout, due);
+                Loan opened = loan;
+                // journaled before the loan is visible, so its return can only be journaled after it
+                seq = Math.max(seq, log(() -> LibraryJournal.checkout(opened)));
+                loanChanging(loanId);
+                loans.put(loanId, loan);
+                indexOpenLoan(loan);
+                if (items.get(itemId) != it) recountCopies(itemId); // replaced meanwhile; the new object missed this loan
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            commit(seq);
+            ok = true;
+            return loan;
+        } finally {
+            metrics.record(LibraryMetrics.Op.CHECKOUT, start, ok);
+        }
     }
 
     public Loan returnItemByLoanId(String loanId) throws IllegalStateException {
+        checkWritable();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Loan loan = loans.get(loanId);
+            if (loan == null) {
+                if (findLoan(loanId) != null) throw new IllegalStateException("Item already returned");
+                throw new IllegalStateException("Loan not found");
+            }
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                synchronized (loan) { // only one of several concurrent returns of a loan gets through
+                    if (loan.getReturnDate() != null) throw new IllegalStateException("Item already returned");
+                    loanChanging(loanId);
+                    loan.markReturned(today());
+                    seq = log(() -> LibraryJournal.returned(loan));
+                }
+                unindexOpenLoan(loan);
+                LibraryItem it = items.get(loan.getItemId());
+                if (it != null) seq = Math.max(seq, releaseCopy(it));
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            commit(seq);
+            ok = true;
+            return loan;
+        } finally {
+            metrics.record(LibraryMetrics.Op.RETURN, start, ok);
+        }
+    }
+
+    // replay of a journaled checkout: the loan keeps its original id and dates. A loan already
+    // present is left alone, so replaying a record twice cannot take a second copy.
+    void restoreLoan(Loan loan) {
+        synchronized (lockFor(loan.getItemId())) {
+            if (loans.containsKey(loan.getLoanId())) return;
+            loanChanging(loan.getLoanId());
+            loans.put(loan.getLoanId(), loan);
+            if (loan.getReturnDate() == null) {
+                indexOpenLoan(loan);
+                LibraryItem it = items.get(loan.getItemId());
+                if (it != null) it.checkOutCopy();
+            }
+        }
+    }
+
+    // replay of a journaled return
+    void restoreReturn(String loanId, LocalDate returnedOn) {
         Loan loan = loans.get(loanId);
-        if (loan == null) throw new IllegalStateException("Loan not found");
-        if (loan.getReturnDate() != null) throw new IllegalStateException("Item already returned");
-        loan.markReturned(LocalDate.now());
-        LibraryItem it = items.get(loan.getItemId());
-        if (it != null) it.setAvailable(true);
-        return loan;
+        if (loan == null) return;
+        synchronized (lockFor(loan.getItemId())) {
+            if (loan.getReturnDate() != null) return;
+            loanChanging(loanId);
+            loan.markReturned(returnedOn);
+            unindexOpenLoan(loan);
+            LibraryItem it = items.get(loan.getItemId());
+            if (it != null) it.returnCopy();
+        }
     }
 
+    private static String unavailable(LibraryItem it) {
+        return it.getCopies() == 1 ? "Item is already checked out" : "All " + it.getCopies() + " copies are checked out";
+    }
+
+    // changes how many copies of an item the library owns; fails if more than that are on loan.
+    // New copies go to the waiting holds first, in queue order, as a returned copy would.
+    public void setCopies(String itemId, int copies) {
+        checkWritable();
+        if (copies < 1) throw new IllegalArgumentException("An item needs at least one copy");
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            synchronized (lockFor(itemId)) {
+                LibraryItem it = items.get(itemId);
+                if (it == null) throw new IllegalStateException("Item not found");
+                HoldQueue q = holdQueues.get(itemId);
+                if (q == null) {
+                    seq = changeCopies(it, copies);
+                } else {
+                    synchronized (q) {
+                        seq = changeCopies(it, copies);
+                        seq = Math.max(seq, fillFromShelf(q, it));
+                    }
+                }
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+    }
+
+    // caller holds the item's stripe lock
+    private long changeCopies(LibraryItem it, int copies) {
+        if (!it.changeCopies(copies)) throw new IllegalStateException((it.getCopies() - it.getAvailableCopies()) + " copies are on loan");
+        return log(() -> LibraryJournal.addItem(it));
+    }
+
+    private void recountCopies(String itemId) {
+        synchronized (lockFor(itemId)) {
+            LibraryItem it = items.get(itemId);
+            if (it == null) return;
+            it.resetAvailableCopies(copiesOut(itemId));
+            facets.availabilityChanged(it);
+        }
+    }
+
+    // copies not on the shelf: on loan, or set aside for a ready hold
+    private int copiesOut(String itemId) {
+        HoldQueue q = holdQueues.get(itemId);
+        return openLoansForItem(itemId).size() + (q == null ? 0 : q.readyCount());
+    }
+
+    // holds
+    // queues a member for an item that has no copy on the shelf
+    public Hold placeHold(String itemId, String memberId) {
+        checkWritable();
+        Hold hold;
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            LibraryItem it = items.get(itemId);
+            if (it == null) throw new IllegalStateException("Item not found");
+            if (!members.containsKey(memberId)) throw new IllegalStateException("Member not found");
+            HoldQueue q = holdQueues.computeIfAbsent(itemId, k -> new HoldQueue());
+            synchronized (q) {
+                if (q.hasMember(memberId)) throw new IllegalStateException("Member already has a hold on this item");
+                if (it.isAvailable() && !q.hasWaiting()) throw new IllegalStateException("Item is available; check it out instead");
+                LocalDate today = today();
+                hold = new Hold(UUID.randomUUID().toString(), itemId, memberId, today, today.plusDays(holdWaitDays));
+                Hold placed = hold;
+                seq = log(() -> LibraryJournal.hold(placed));
+                holdsChanging(itemId, q);
+                q.add(hold);
+                holds.put(hold.getHoldId(), hold);
+                indexHold(hold);
+                seq = Math.max(seq, fillFromShelf(q, it)); // a copy returned while we were queuing
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+        return hold;
+    }
+
+    public void cancelHold(String holdId) {
+        checkWritable();
+        Hold h = holds.get(holdId);
+        if (h == null) throw new IllegalStateException("Hold not found");
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            HoldQueue q = holdQueues.get(h.getItemId());
+            if (q == null) throw new IllegalStateException("Hold not found");
+            synchronized (q) {
+                if (!q.contains(h)) throw new IllegalStateException("Hold not found");
+                seq = endHold(q, h, true);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+    }
+
+    // batch sweep: ends every hold whose expiry date is before asOf, passing set-aside copies on
+    public List<Hold> expireHolds(LocalDate asOf) {
+        checkWritable();
+        List<Hold> expired = new ArrayList<>();
+        long seq = 0;
+        checkpointLock.readLock().lock();
+        try {
+            for (Set<Hold> day : holdsByExpiryDay.headMap(asOf.toEpochDay(), false).values()) {
+                for (Hold h : day.toArray(new Hold[0])) {
+                    HoldQueue q = holdQueues.get(h.getItemId());
+                    if (q == null) continue;
+                    synchronized (q) {
+                        // it may have been picked up, cancelled or become ready since we looked
+                        if (!q.contains(h) || !h.getExpiresOn().isBefore(asOf)) continue;
+                        seq = Math.max(seq, endHold(q, h, true));
+                        expired.add(h);
+                    }
+                }
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commit(seq);
+        return expired;
+    }
+
+    public Hold findHold(String holdId) { return holds.get(holdId); }
+
+    // an item's holds, ready ones first and then the waiting ones in queue order
+    public List<Hold> holdsForItem(String itemId) {
+        HoldQueue q = holdQueues.get(itemId);
+        return q == null ? Collections.emptyList() : q.snapshot();
+    }
+
+    public List<Hold> holdsForMember(String memberId) {
+        List<Hold> out = new ArrayList<>();
+        for (Hold h : holds.values()) if (h.getMemberId().equals(memberId)) out.add(h);
+        out.sort(Comparator.comparing(Hold::getPlacedOn));
+        return out;
+    }
+
+    // place in line, 1 being next; 0 once the hold is ready
+    public int holdPosition(Hold h) {
+        HoldQueue q = holdQueues.get(h.getItemId());
+        return q == null ? 0 : q.position(h);
+    }
+
+    // every live hold, each item's in queue order
+    public List<Hold> allHolds() {
+        List<Hold> out = new ArrayList<>();
+        for (HoldQueue q : holdQueues.values()) out.addAll(q.snapshot());
+        return out;
+    }
+
+    // a copy coming back goes to the first waiting hold, without passing through the shelf
+    private long releaseCopy(LibraryItem it) {
+        HoldQueue q = holdQueues.get(it.getId());
+        if (q != null) {
+            synchronized (q) {
+                if (q.hasWaiting()) return makeNextReady(q);
+            }
+        }
+        it.returnCopy();
+        q = holdQueues.get(it.getId()); // a hold queued meanwhile may have missed this copy
+        if (q == null) return 0;
+        synchronized (q) {
+            return fillFromShelf(q, it);
+        }
+    }
+
+    // caller holds q: moves shelf copies to waiting holds while there are both
+    private long fillFromShelf(HoldQueue q, LibraryItem it) {
+        long seq = 0;
+        while (q.hasWaiting() && it.checkOutCopy()) seq = makeNextReady(q);
+        return seq;
+    }
+
+    // caller holds q, which has a waiting hold, and has already taken the copy for it
+    private long makeNextReady(HoldQueue q) {
+        LocalDate today = today();
+        holdsChanging(q.peekWaiting().getItemId(), q);
+        Hold h = q.pollWaiting();
+        unindexHold(h);
+        h.markReady(today, today.plusDays(holdPickupDays));
+        q.add(h);
+        indexHold(h);
+        return log(() -> LibraryJournal.holdReady(h));
+    }
+
+    // caller holds q; a ready hold's copy moves on to the next waiting hold or back to the shelf,
+    // unless it is being picked up
+    private long endHold(HoldQueue q, Hold h, boolean releaseCopy) {
+        if (!q.contains(h)) return 0;
+        holdsChanging(h.getItemId(), q);
+        q.remove(h);
+        holds.remove(h.getHoldId());
+        unindexHold(h);
+        long seq = log(() -> LibraryJournal.holdEnded(h.getHoldId()));
+        LibraryItem it = items.get(h.getItemId());
+        if (h.isReady() && releaseCopy && it != null) {
+            if (q.hasWaiting()) seq = makeNextReady(q);
+            else it.returnCopy();
+        }
+        return seq;
+    }
+
+    // the journal sequence of a ready hold turned into a loan, or -1 if the member has none on this item
+    private long pickUpHold(String itemId, String memberId) {
+        HoldQueue q = holdQueues.get(itemId);
+        if (q == null) return -1;
+        synchronized (q) {
+            Hold h = q.readyFor(memberId);
+            return h == null ? -1 : endHold(q, h, false); // its set-aside copy becomes the loan
+        }
+    }
+
+    // the item is gone, and its holds with it
+    private void dropHolds(String itemId) {
+        HoldQueue q = holdQueues.get(itemId);
+        if (q == null) return;
+        synchronized (q) {
+            holdsChanging(itemId, q);
+            holdQueues.remove(itemId, q);
+            for (Hold h : q.snapshot()) {
+                q.remove(h);
+                holds.remove(h.getHoldId());
+                unindexHold(h);
+            }
+        }
+    }
+
+    private void indexHold(Hold h) {
+        holdsByExpiryDay.computeIfAbsent(h.getExpiresOn().toEpochDay(), k -> ConcurrentHashMap.newKeySet()).add(h);
+    }
+
+    private void unindexHold(Hold h) {
+        Set<Hold> day = holdsByExpiryDay.get(h.getExpiresOn().toEpochDay());
+        if (day != null) day.remove(h);
+    }
+
+    // replay of a placed hold, or a snapshot's hold in queue order; a ready one takes its copy back.
+    // A hold already present is left alone, so replaying a record twice cannot queue it twice.
+    void restoreHold(Hold h) {
+        HoldQueue q = holdQueues.computeIfAbsent(h.getItemId(), k -> new HoldQueue());
+        synchronized (q) {
+            if (holds.containsKey(h.getHoldId())) return;
+            holdsChanging(h.getItemId(), q);
+            q.add(h);
+            holds.put(h.getHoldId(), h);
+            indexHold(h);
+            LibraryItem it = items.get(h.getItemId());
+            if (h.isReady() && it != null) it.checkOutCopy();
+        }
+    }
+
+    // replay of a hold becoming ready
+    void restoreHoldReady(String holdId, LocalDate on, LocalDate pickUpBy) {
+        Hold h = holds.get(holdId);
+        if (h == null || h.isReady()) return;
+        HoldQueue q = holdQueues.get(h.getItemId());
+        if (q == null) return;
+        synchronized (q) {
+            holdsChanging(h.getItemId(), q);
+            q.remove(h);
+            unindexHold(h);
+            h.markReady(on, pickUpBy);
+            q.add(h);
+            indexHold(h);
+            LibraryItem it = items.get(h.getItemId());
+            if (it != null) it.checkOutCopy();
+        }
+    }
+
+    // replay of a hold ending; a ready hold's copy goes back to the shelf, and the records that
+    // follow it (a pickup's checkout, the next hold becoming ready) take it from there
+    void restoreHoldEnded(String holdId) {
+        Hold h = holds.remove(holdId);
+        if (h == null) return;
+        HoldQueue q = holdQueues.get(h.getItemId());
+        if (q == null) return;
+        synchronized (q) {
+            holdsChanging(h.getItemId(), q);
+            q.remove(h);
+            unindexHold(h);
+            LibraryItem it = items.get(h.getItemId());
+            if (h.isReady() && it != null) it.returnCopy();
+        }
+    }
+
+    // loan lookups
+    // an open loan of the item, or null; with several copies out, which one is unspecified
     public Loan findLoanByItemId(String itemId) {
-        for (Loan l : loans.values()) if (l.getItemId().equals(itemId) && l.getReturnDate()==null) return l;
+        for (Loan l : openLoansForItem(itemId)) return l;
         return null;
     }
 
+    public Collection<Loan> openLoansForItem(String itemId) {
+        Map<String, Loan> open = openLoansByItem.get(itemId);
+        return open == null ? Collections.emptyList() : Collections.unmodifiableCollection(open.values());
+    }
+
+    // open loans currently held by a member
+    public Collection<Loan> openLoansForMember(String memberId) {
+        Map<String, Loan> open = openLoansByMember.get(memberId);
+        return open == null ? Collections.emptyList() : Collections.unmodifiableCollection(open.values());
+    }
+
+    // a member's loans span items, so that map is updated atomically per member; an item's map is
+    // only looked up, keeping concurrent checkouts of one title off a shared lock
+    private void indexOpenLoan(Loan loan) {
+        openLoansByItem.computeIfAbsent(loan.getItemId(), k -> new ConcurrentHashMap<>(4)).put(loan.getLoanId(), loan);
+        openLoansByDueDay.add(loan);
+        openLoansByMember.compute(loan.getMemberId(), (k, open) -> {
+            if (open == null) open = new ConcurrentHashMap<>();
+            open.put(loan.getLoanId(), loan);
+            return open;
+        });
+    }
+
+    private void unindexOpenLoan(Loan loan) {
+        Map<String, Loan> byItem = openLoansByItem.get(loan.getItemId());
+        if (byItem != null) byItem.remove(loan.getLoanId());
+        openLoansByDueDay.remove(loan);
+        openLoansByMember.computeIfPresent(loan.getMemberId(), (k, open) -> {
+            open.remove(loan.getLoanId());
+            return open.isEmpty() ? null : open;
+        });
+    }
+
+    // loans in memory: every open loan plus those returned since the last save
     public Collection<Loan> allLoans() { return loans.values(); }
 
+    boolean hasLoanInMemory(String loanId) { return loans.containsKey(loanId); }
+
+    // any loan, falling back to the archive for returned ones
+    public Loan findLoan(String loanId) {
+        Loan loan = loans.get(loanId);
+        LoanArchive a = archive;
+        if (loan != null || a == null) return loan;
+        try {
+            return a.find(loanId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Loan archive read failed", e);
+        }
+    }
+
+    // a member's full loan history, archived and in memory
+    public List<Loan> loanHistoryForMember(String memberId) {
+        List<Loan> history = new ArrayList<>();
+        LoanArchive a = archive;
+        if (a != null) {
+            try {
+                history.addAll(a.findByMember(memberId));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Loan archive read failed", e);
+            }
+        }
+        Set<String> archived = new HashSet<>();
+        for (Loan l : history) archived.add(l.getLoanId());
+        // a save moves loans to the archive before dropping them here, so one may be in both for a moment
+        for (Loan l : loans.values()) if (l.getMemberId().equals(memberId) && !archived.contains(l.getLoanId())) history.add(l);
+        history.sort(Comparator.comparing(Loan::getCheckoutDate));
+        return history;
+    }
+
     public double calculateFine(Loan loan) {
-        long days = loan.daysOverdue();
+        return calculateFine(loan, today());
+    }
+
+    public double calculateFine(Loan loan, LocalDate asOf) {
+        long days = loan.daysOverdue(asOf);
         return days * finePerDay;
     }
 
+    // open loans due before asOf; only the past-due head of the index is visited
+    public List<Loan> overdueLoans(LocalDate asOf) {
+        return new ArrayList<>(openLoansDueBefore(asOf));
+    }
+
+    // a live view of the past-due head of the due-date index, for LibraryView's overdue report
+    NavigableSet<Loan> openLoansDueBefore(LocalDate asOf) {
+        return openLoansByDueDay.headSet(new Loan("", "", "", asOf, asOf), false); // "" sorts before any real id
+    }
+
+    // fines accrued on open overdue loans, per member, all evaluated against the same date
+    public Map<String, Double> finesOwedByMember(LocalDate asOf) {
+        Map<String, Double> owed = new TreeMap<>();
+        for (Loan l : overdueLoans(asOf)) owed.merge(l.getMemberId(), calculateFine(l, asOf), Double::sum);
+        return owed;
+    }
+
     // persistence
+
+    // starts journaling every mutation next to the given snapshot file; saving to that file compacts it
+    public void openJournal(String filename) throws IOException {
+        saveLock.lock();
+        checkpointLock.writeLock().lock();
+        try {
+            if (journal != null) journal.close();
+            journal = LibraryJournal.open(filename);
+        } finally {
+            checkpointLock.writeLock().unlock();
+            saveLock.unlock();
+        }
+    }
+
+    public void closeJournal() throws IOException {
+        saveLock.lock();
+        checkpointLock.writeLock().lock();
+        try {
+            if (journal != null) journal.close();
+            journal = null;
+            if (archive != null) archive.close();
+            archive = null;
+        } finally {
+            checkpointLock.writeLock().unlock();
+            saveLock.unlock();
+        }
+    }
+
+    // moves returned loans to segment files next to the given snapshot on every save to it
+    public void openLoanArchive(String filename) throws IOException {
+        saveLock.lock();
+        checkpointLock.writeLock().lock();
+        try {
+            if (archive != null) archive.close();
+            archive = LoanArchive.open(filename);
+            // a crash after writing a segment but before the snapshot leaves its loans in both tiers
+            for (Loan l : new ArrayList<>(loans.values())) {
+                if (l.getReturnDate() != null && archive.inNewestSegment(l.getLoanId())) loans.remove(l.getLoanId(), l);
+            }
+        } finally {
+            checkpointLock.writeLock().unlock();
+            saveLock.unlock();
+        }
+    }
+
+    // writes a full snapshot via a temp file and atomic rename, then drops the journal records it covers.
+    // The snapshot is written from a view, so checkouts and returns carry on while it is on its way to disk.
     public void saveToFile(String filename) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(this);
+        long start = System.nanoTime();
+        boolean ok = false;
+        saveLock.lock();
+        try (LibraryView view = openView()) {
+            Path target = Paths.get(filename).toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            LoanArchive a = archive;
+            boolean archiving = a != null && a.isFor(target);
+            LibraryJournal j = journal;
+            boolean journaled = j != null && Paths.get(j.snapshotFile()).toAbsolutePath().equals(target);
+            if (archiving) {
+                // loans returned by the time the view was opened; later returns wait for the next save
+                List<Loan> returned = new ArrayList<>();
+                for (Loan l : view.allLoans()) if (l.getReturnDate() != null) returned.add(l);
+                a.append(returned);
+                checkpointLock.readLock().lock();
+                try {
+                    for (Loan l : returned) {
+                        loanChanging(l.getLoanId());
+                        loans.remove(l.getLoanId());
+                    }
+                } finally {
+                    checkpointLock.readLock().unlock();
+                }
+            }
+            // the snapshot names the journal records it covers, so a crash before they are dropped
+            // below leaves a journal whose load skips them rather than applying them twice
+            LibrarySnapshot.write(view, tmp.toFile(), !archiving, journaled ? view.journalMark() : null);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (journaled) j.dropBefore(view.journalMark());
+            ok = true;
+        } finally {
+            saveLock.unlock();
+            metrics.record(LibraryMetrics.Op.SAVE, start, ok);
         }
     }
 
+    // loads the snapshot, if any, and replays the journal tail written after it;
+    // a legacy serialized file is still readable and becomes a binary snapshot on the next save
     public static Library loadFromFile(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            return (Library) ois.readObject();
+        long start = System.nanoTime();
+        File snapshot = new File(filename);
+        File log = LibraryJournal.fileFor(filename);
+        if (!snapshot.exists() && !log.exists()) throw new FileNotFoundException(filename);
+        Library lib;
+        if (snapshot.exists()) {
+            lib = LibrarySnapshot.isSnapshot(snapshot) ? LibrarySnapshot.read(snapshot) : LibrarySnapshot.readSerialized(snapshot);
+        } else {
+            lib = new Library();
+        }
+        if (log.exists()) LibraryJournal.replay(log, lib, snapshot.exists() ? LibrarySnapshot.journalMark(snapshot) : null);
+        lib.metrics.record(LibraryMetrics.Op.LOAD, start, true); // a failed load has no library to record into
+        return lib;
+    }
+
+    // replication
+    // publishes every mutation from here on to a change feed at path, a file or a named pipe a follower
+    // reads, led by the current state so the follower needs nothing else. The state is written from a
+    // view opened together with the feed; changes made meanwhile are held back and follow it.
+    public void openChangeFeed(String path) throws IOException {
+        LibraryChangeFeed f = LibraryChangeFeed.open(path);
+        LibraryView view;
+        checkpointLock.writeLock().lock();
+        try {
+            if (feed != null) feed.close();
+            feed = f;
+            view = registerView();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        try (LibraryView v = view) {
+            for (LibraryItem it : v.allItems()) f.publishBase(LibraryJournal.addItem(it));
+            for (Member m : v.allMembers()) f.publishBase(LibraryJournal.addMember(m));
+            // returned loans first: each checks a copy out and back in, which only nets out while one is free
+            for (Loan l : v.allLoans()) {
+                if (l.getReturnDate() == null) continue;
+                f.publishBase(LibraryJournal.checkout(l));
+                f.publishBase(LibraryJournal.returned(l));
+            }
+            for (Loan l : v.allLoans()) if (l.getReturnDate() == null) f.publishBase(LibraryJournal.checkout(l));
+            for (Hold h : v.allHolds()) {
+                f.publishBase(LibraryJournal.hold(h));
+                if (h.isReady()) f.publishBase(LibraryJournal.holdReady(h));
+            }
+            f.endBase();
+        } catch (IOException | RuntimeException e) {
+            closeChangeFeed();
+            throw e;
+        }
+    }
+
+    public void closeChangeFeed() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            if (feed != null) feed.close();
+            feed = null;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    LibraryChangeFeed changeFeed() { return feed; }
+
+    // a replica refuses every change but those its follower applies from the primary's feed
+    void setReadOnly() { readOnly = true; }
+    boolean isReadOnly() { return readOnly; }
+
+    private void checkWritable() {
+        if (readOnly) throw new IllegalStateException("This library is a read-only replica");
+    }
+
+    // one record from a primary's change feed, applied as a single mutation so views stay consistent
+    void applyReplicated(byte[] record) throws IOException, ClassNotFoundException {
+        checkpointLock.readLock().lock();
+        try {
+            LibraryJournal.apply(record, this);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    // the serialized form (legacy snapshots, journaled non-book items) only carries the maps;
+    // rebuild indexes through the normal add path
+    private Object readResolve() {
+        Library lib = new Library();
+        for (LibraryItem it : items.values()) lib.addItem(it);
+        lib.members.putAll(members);
+        lib.loans.putAll(loans);
+        for (Loan l : loans.values()) {
+            if (l.getReturnDate() != null) continue;
+            lib.indexOpenLoan(l);
+            LibraryItem it = lib.items.get(l.getItemId());
+            if (it != null) it.checkOutCopy();
         }
+        return lib;
     }
 }
 
 // ---------- Simple command-line interface demonstrating usage ----------
 public class LibraryManagementSystem {
     private static final String SAVE_FILE = "library.dat";
+    static final long CHECKPOINT_SECONDS = 60;
     private final Library library;
+    private final LibraryCheckpointer checkpointer; // all saving happens on its thread, never at the prompt
     private final Scanner in = new Scanner(System.in);
 
-    public LibraryManagementSystem(Library library) {
+    public LibraryManagementSystem(Library library, LibraryCheckpointer checkpointer) {
         this.library = library;
+        this.checkpointer = checkpointer;
     }
 
     public void run() {
@@ -237,7 +1410,17 @@ public class LibraryManagementSystem {
                     case "7": cmdListMembers(); break;
                     case "8": cmdListLoans(); break;
                     case "9": cmdSave(); break;
-                    case "0": System.out.println("Goodbye"); cmdSave(); return;
+                    case "10": cmdOverdue(); break;
+                    case "11": cmdMemberHistory(); break;
+                    case "12": cmdImport(); break;
+                    case "13": cmdExport(); break;
+                    case "14": case "stats": cmdStats(); break;
+                    case "15": cmdBrowse(); break;
+                    case "16": cmdSetCopies(); break;
+                    case "17": cmdPlaceHold(); break;
+                    case "18": cmdMemberHolds(); break;
+                    case "19": cmdExpireHolds(); break;
+                    case "0": cmdExit(); return;
                     default: System.out.println("Unknown command");
                 }
             } catch (Exception e) {
@@ -249,6 +1432,7 @@ public class LibraryManagementSystem {
 
     private void printMenu() {
         System.out.println("=== Library Management ===");
+        System.out.println(checkpointer.status());
         System.out.println("1) List all items");
         System.out.println("2) Search by title");
         System.out.println("3) Add a book");
@@ -257,28 +1441,99 @@ public class LibraryManagementSystem {
         System.out.println("6) Return item");
         System.out.println("7) List members");
         System.out.println("8) List loans");
-        System.out.println("9) Save library to disk");
+        System.out.println("9) Save library to disk (in the background)");
+        System.out.println("10) Overdue loans and fines owed");
+        System.out.println("11) Loan history for a member");
+        System.out.println("12) Bulk import books/members (CSV or JSONL)");
+        System.out.println("13) Export books/members/loans (CSV or JSONL)");
+        System.out.println("14) Operation statistics");
+        System.out.println("15) Browse books by genre, author and year");
+        System.out.println("16) Change number of copies");
+        System.out.println("17) Place a hold");
+        System.out.println("18) Holds for a member (and cancel)");
+        System.out.println("19) Expire lapsed holds");
         System.out.println("0) Exit (saves automatically)");
         System.out.print("Choose: ");
     }
 
+    // listings and reports print from a view, so each shows one moment even with the server writing
     private void cmdListItems() {
         System.out.println("Items in library:");
-        for (LibraryItem it : library.allItems()) System.out.println(" - " + it.getDetails());
+        try (LibraryView view = library.openView()) {
+            for (LibraryItem it : view.allItems()) System.out.println(" - " + it.getDetails());
+        }
     }
 
     private void cmdListMembers() {
         System.out.println("Members:");
-        for (Member m : library.allMembers()) System.out.println(" - " + m);
+        try (LibraryView view = library.openView()) {
+            for (Member m : view.allMembers()) System.out.println(" - " + m);
+        }
     }
 
     private void cmdListLoans() {
         System.out.println("Loans:");
-        for (Loan l : library.allLoans()) {
-            System.out.println(" - " + l + " | fine=" + String.format("%.2f", library.calculateFine(l)));
+        LocalDate today = library.today();
+        try (LibraryView view = library.openView()) {
+            for (Loan l : view.allLoans()) {
+                System.out.println(" - " + l + " | fine=" + String.format("%.2f", library.calculateFine(l, today)));
+            }
         }
     }
 
+    private void cmdOverdue() {
+        LocalDate today = library.today();
+        try (LibraryView view = library.openView()) {
+            List<Loan> overdue = view.overdueLoans(today);
+            if (overdue.isEmpty()) { System.out.println("No overdue loans as of " + today); return; }
+            System.out.println("Overdue as of " + today + ":");
+            for (Loan l : overdue) System.out.println(" - " + l + " | fine=" + String.format("%.2f", library.calculateFine(l, today)));
+            System.out.println("Owed by member:");
+            for (Map.Entry<String, Double> e : view.finesOwedByMember(today).entrySet()) {
+                System.out.println(" - " + e.getKey() + ": " + String.format("%.2f", e.getValue()));
+            }
+        }
+    }
+
+    private void cmdMemberHistory() {
+        System.out.print("Member ID: "); String memberId = in.nextLine().trim();
+        List<Loan> history = library.loanHistoryForMember(memberId);
+        if (history.isEmpty()) System.out.println("No loans for that member");
+        else for (Loan l : history) System.out.println(" - " + l);
+    }
+
+    private void cmdImport() throws IOException {
+        System.out.print("Import books or members? "); String kind = in.nextLine().trim().toLowerCase();
+        System.out.print("File: "); Path file = Paths.get(in.nextLine().trim());
+        long start = System.nanoTime();
+        LibraryBulk.ImportResult result;
+        switch (kind) {
+            case "books": result = LibraryBulk.importBooks(library, file); break;
+            case "members": result = LibraryBulk.importMembers(library, file); break;
+            default: System.out.println("Unknown kind: " + kind); return;
+        }
+        System.out.println(result);
+        System.out.printf("Took %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private void cmdExport() throws IOException {
+        System.out.print("Export books, members or loans? "); String kind = in.nextLine().trim().toLowerCase();
+        System.out.print("File: "); Path file = Paths.get(in.nextLine().trim());
+        long count;
+        switch (kind) {
+            case "books": count = LibraryBulk.exportBooks(library, file); break;
+            case "members": count = LibraryBulk.exportMembers(library, file); break;
+            case "loans": count = LibraryBulk.exportLoans(library, file); break;
+            default: System.out.println("Unknown kind: " + kind); return;
+        }
+        System.out.println("Exported " + count + " " + kind + " to " + file);
+    }
+
+    private void cmdStats() {
+        String report = library.metrics().report();
+        System.out.print(report.indexOf('\n') == report.length() - 1 ? "No operations recorded yet.\n" : report);
+    }
+
     private void cmdSearch() {
         System.out.print("Search term: ");
         String term = in.nextLine();
@@ -287,17 +1542,46 @@ public class LibraryManagementSystem {
         else for (LibraryItem it : results) System.out.println(" - " + it.getDetails());
     }
 
+    private void cmdBrowse() {
+        BookQuery q = new BookQuery();
+        System.out.print("Genre (Enter for any): "); String genre = in.nextLine().trim();
+        System.out.print("Author (Enter for any): "); String author = in.nextLine().trim();
+        System.out.print("Years, e.g. 2000-2010 (Enter for any): "); String years = in.nextLine().trim();
+        System.out.print("Available only? (y/N): "); String avail = in.nextLine().trim();
+        if (!genre.isEmpty()) q.genre(genre);
+        if (!author.isEmpty()) q.author(author);
+        if (!years.isEmpty()) {
+            String[] r = years.split("-", 2);
+            q.years(Integer.parseInt(r[0].trim()), Integer.parseInt(r[r.length - 1].trim()));
+        }
+        if (avail.equalsIgnoreCase("y")) q.availableOnly();
+        List<LibraryItem> results = library.findBooks(q);
+        System.out.println(results.size() + " match " + q);
+        if (genre.isEmpty()) System.out.println("By genre: " + library.facetCounts(FacetIndex.Facet.GENRE, q));
+        for (int i = 0; i < Math.min(results.size(), 50); i++) System.out.println(" - " + results.get(i).getDetails());
+        if (results.size() > 50) System.out.println(" ... and " + (results.size() - 50) + " more");
+    }
+
     private void cmdAddBook() {
         System.out.print("Book ID: "); String id = in.nextLine().trim();
         System.out.print("Title: "); String title = in.nextLine().trim();
         System.out.print("Author: "); String author = in.nextLine().trim();
         System.out.print("Year: "); int year = Integer.parseInt(in.nextLine().trim());
         System.out.print("Genre: "); String genre = in.nextLine().trim();
-        Book b = new Book(id, title, author, year, genre);
+        System.out.print("Copies (Enter for 1): "); String copies = in.nextLine().trim();
+        Book b = new Book(id, title, author, year, genre, copies.isEmpty() ? 1 : Integer.parseInt(copies));
         library.addItem(b);
         System.out.println("Book added.");
     }
 
+    private void cmdSetCopies() {
+        System.out.print("Item ID: "); String id = in.nextLine().trim();
+        System.out.print("Copies: "); int copies = Integer.parseInt(in.nextLine().trim());
+        library.setCopies(id, copies);
+        LibraryItem it = library.findItemById(id);
+        System.out.println(it.getAvailableCopies() + " of " + it.getCopies() + " copies on the shelf.");
+    }
+
     private void cmdRegisterMember() {
         System.out.print("Member ID: "); String id = in.nextLine().trim();
         System.out.print("Name: "); String name = in.nextLine().trim();
@@ -310,11 +1594,49 @@ public class LibraryManagementSystem {
     private void cmdCheckout() {
         System.out.print("Item ID to checkout: "); String itemId = in.nextLine().trim();
         System.out.print("Member ID: "); String memberId = in.nextLine().trim();
-        Loan loan = library.checkoutItem(itemId, memberId);
+        Loan loan;
+        try {
+            loan = library.checkoutItem(itemId, memberId);
+        } catch (IllegalStateException e) {
+            LibraryItem it = library.findItemById(itemId);
+            if (it == null || it.isAvailable() || library.findMember(memberId) == null) throw e;
+            System.out.print(e.getMessage() + ". Place a hold? (y/N): ");
+            if (in.nextLine().trim().equalsIgnoreCase("y")) printHold(library.placeHold(itemId, memberId));
+            return;
+        }
         DateTimeFormatter f = DateTimeFormatter.ISO_LOCAL_DATE;
         System.out.println("Checked out. Loan id=" + loan.getLoanId() + " due=" + loan.getDueDate().format(f));
     }
 
+    private void cmdPlaceHold() {
+        System.out.print("Item ID: "); String itemId = in.nextLine().trim();
+        System.out.print("Member ID: "); String memberId = in.nextLine().trim();
+        printHold(library.placeHold(itemId, memberId));
+    }
+
+    private void printHold(Hold h) {
+        if (h.isReady()) System.out.println("A copy is set aside. Hold id=" + h.getHoldId() + ", pick up by " + h.getExpiresOn());
+        else System.out.println("Hold placed. Hold id=" + h.getHoldId() + ", position " + library.holdPosition(h) + " in line");
+    }
+
+    private void cmdMemberHolds() {
+        System.out.print("Member ID: "); String memberId = in.nextLine().trim();
+        List<Hold> holds = library.holdsForMember(memberId);
+        if (holds.isEmpty()) { System.out.println("No holds for that member"); return; }
+        for (Hold h : holds) {
+            System.out.println(" - " + h + (h.isReady() ? " | READY for pickup" : " | position " + library.holdPosition(h)));
+        }
+        System.out.print("Hold ID to cancel (Enter to keep all): "); String holdId = in.nextLine().trim();
+        if (!holdId.isEmpty()) { library.cancelHold(holdId); System.out.println("Hold cancelled."); }
+    }
+
+    private void cmdExpireHolds() {
+        LocalDate today = library.today();
+        List<Hold> expired = library.expireHolds(today);
+        System.out.println(expired.size() + " hold(s) lapsed as of " + today);
+        for (Hold h : expired) System.out.println(" - " + h);
+    }
+
     private void cmdReturn() {
         System.out.print("Loan ID (or press Enter to return by item id): "); String loanId = in.nextLine().trim();
         if (!loanId.isEmpty()) {
@@ -326,14 +1648,30 @@ public class LibraryManagementSystem {
         System.out.print("Item ID: "); String itemId = in.nextLine().trim();
         Loan loan = library.findLoanByItemId(itemId);
         if (loan==null) { System.out.println("No active loan for that item"); return; }
+        if (library.openLoansForItem(itemId).size() > 1) {
+            System.out.print("Several copies are out; Member ID: "); String memberId = in.nextLine().trim();
+            loan = null;
+            for (Loan l : library.openLoansForItem(itemId)) if (l.getMemberId().equals(memberId)) loan = l;
+            if (loan==null) { System.out.println("That member has no copy of this item"); return; }
+        }
         library.returnItemByLoanId(loan.getLoanId());
         double fine = library.calculateFine(loan);
         System.out.println("Returned. Fine: " + String.format("%.2f", fine));
     }
 
     private void cmdSave() {
-        try { library.saveToFile(SAVE_FILE); System.out.println("Library saved."); }
-        catch (IOException e) { System.out.println("Save failed: " + e.getMessage()); }
+        checkpointer.requestCheckpoint();
+        System.out.println("Checkpoint requested; it is written in the background and shown above the menu.");
+    }
+
+    // the one place the prompt waits on the disk: the final checkpoint before the process ends
+    private void cmdExit() throws IOException {
+        System.out.println("Saving...");
+        checkpointer.close();
+        library.closeJournal();
+        library.closeChangeFeed();
+        System.out.println(checkpointer.status());
+        System.out.println("Goodbye");
     }
 
     private void seedSampleDataIfEmpty() {
@@ -348,16 +1686,60 @@ public class LibraryManagementSystem {
     }
 
     // ---------- main ----------
-    public static void main(String[] args) {
+    // usage: java LibraryManagementSystem [--server [port]] [--bind address] [--feed path]
+    // the server listens on loopback only unless --bind names another address, e.g. 0.0.0.0 for all
+    // --feed publishes every change to path, a file or named pipe, for LibraryFollower replicas
+    public static void main(String[] args) throws Exception {
+        int port = -1;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        String feed = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server": port = i + 1 < args.length && !args[i + 1].startsWith("--") ? Integer.parseInt(args[++i]) : 8080; break;
+                case "--bind": bind = InetAddress.getByName(args[++i]); break;
+                case "--feed": feed = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Library lib = openLibrary(SAVE_FILE);
+        if (feed != null) {
+            lib.openChangeFeed(feed);
+            System.out.println("Publishing changes to " + feed);
+        }
+        if (port >= 0) {
+            LibraryServer.serve(lib, SAVE_FILE, bind, port);
+            return;
+        }
+        LibraryCheckpointer checkpointer = new LibraryCheckpointer(lib, SAVE_FILE);
+        checkpointer.start(CHECKPOINT_SECONDS);
+        LibraryManagementSystem app = new LibraryManagementSystem(lib, checkpointer);
+        app.run();
+    }
+
+    static Library openLibrary(String saveFile) {
         Library lib = null;
         try {
-            lib = Library.loadFromFile(SAVE_FILE);
+            lib = Library.loadFromFile(saveFile);
             System.out.println("Loaded library from disk.");
         } catch (Exception e) {
             lib = new Library();
             System.out.println("Starting with a new library (no saved data found).");
         }
-        LibraryManagementSystem app = new LibraryManagementSystem(lib);
-        app.run();
+        try {
+            lib.openJournal(saveFile);
+        } catch (IOException e) {
+            System.out.println("Journal unavailable, changes are only kept until the next save: " + e.getMessage());
+        }
+        try {
+            lib.openLoanArchive(saveFile);
+        } catch (IOException e) {
+            System.out.println("Loan archive unavailable, returned loans stay in memory: " + e.getMessage());
+        }
+        try {
+            lib.metrics().registerMBeans("library");
+        } catch (JMException e) {
+            System.out.println("JMX statistics unavailable: " + e.getMessage());
+        }
+        return lib;
     }
 }
@@ -0,0 +1,139 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+// ---------- Per-operation counters and latency histograms for a Library ----------
+// Recording is two nanoTime reads plus a few uncontended atomic adds: no locks, no allocation.
+class LibraryMetrics {
+    enum Op {
+        ADD_ITEM("addItem"), REMOVE_ITEM("removeItem"), ADD_MEMBER("addMember"), SEARCH("searchByTitle"),
+        CHECKOUT("checkoutItem"), RETURN("returnItemByLoanId"), SAVE("saveToFile"), LOAD("loadFromFile");
+
+        final String label;
+        Op(String label) { this.label = label; }
+    }
+
+    private final Map<Op, Operation> ops = new EnumMap<>(Op.class);
+
+    LibraryMetrics() {
+        for (Op op : Op.values()) ops.put(op, new Operation());
+    }
+
+    // call with the System.nanoTime() taken when the operation started; ok is false if it threw
+    void record(Op op, long startNanos, boolean ok) {
+        ops.get(op).record(System.nanoTime() - startNanos, ok);
+    }
+
+    Operation get(Op op) { return ops.get(op); }
+
+    // publishes every operation as library:type=Operation,name=<label> on the platform MBean server
+    void registerMBeans(String domain) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<Op, Operation> e : ops.entrySet()) {
+            ObjectName name = new ObjectName(domain + ":type=Operation,name=" + e.getKey().label);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(e.getValue(), name);
+        }
+    }
+
+    // one line per operation that has been called
+    String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-20s %10s %8s %10s %10s %10s %10s%n",
+                "operation", "calls", "failed", "mean(us)", "p50(us)", "p99(us)", "max(us)"));
+        for (Map.Entry<Op, Operation> e : ops.entrySet()) {
+            Operation o = e.getValue();
+            if (o.getCount() == 0) continue;
+            sb.append(String.format("%-20s %10d %8d %10.1f %10.1f %10.1f %10.1f%n", e.getKey().label, o.getCount(),
+                    o.getFailures(), o.getMeanMicros(), o.getP50Micros(), o.getP99Micros(), o.getMaxMicros()));
+        }
+        return sb.toString();
+    }
+
+    static class Operation implements LibraryOperationMXBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        void record(long nanos, boolean ok) {
+            count.increment();
+            if (!ok) failures.increment();
+            totalNanos.add(nanos);
+            histogram.record(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+        }
+
+        @Override public long getCount() { return count.sum(); }
+        @Override public long getFailures() { return failures.sum(); }
+        @Override public double getMeanMicros() { long n = count.sum(); return n == 0 ? 0 : totalNanos.sum() / (n * 1e3); }
+        @Override public double getP50Micros() { return percentile(0.50); }
+        @Override public double getP90Micros() { return percentile(0.90); }
+        @Override public double getP99Micros() { return percentile(0.99); }
+        @Override public double getP999Micros() { return percentile(0.999); }
+        // a bucket's upper edge can overshoot the largest value actually seen
+        private double percentile(double p) { return Math.min(histogram.percentile(p), maxNanos.get()) / 1e3; }
+
+        @Override public double getMaxMicros() { return maxNanos.get() / 1e3; }
+
+        @Override
+        public void reset() {
+            count.reset();
+            failures.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            histogram.reset();
+        }
+    }
+}
+
+// ---------- Log-linear latency histogram in the style of HdrHistogram ----------
+// Values below 16 get exact buckets; above that each power of two is split into 16 sub-buckets,
+// so any recorded value is known to within 1/16 (about 6%) across the full long range,
+// using a fixed 8 KB of counters.
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+
+    void record(long value) {
+        buckets.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB) return index;
+        int exp = index / SUB + SUB_BITS - 1;
+        return (long) (SUB + index % SUB) << (exp - SUB_BITS);
+    }
+
+    // upper edge of the bucket holding the p-th quantile, 0 if nothing was recorded
+    long percentile(double p) {
+        int n = buckets.length();
+        long total = 0;
+        for (int i = 0; i < n; i++) total += buckets.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < n; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return i + 1 < n ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+    }
+}
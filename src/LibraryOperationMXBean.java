@@ -0,0 +1,13 @@
+// ---------- JMX view of one Library operation's counters and latency histogram ----------
+// Registered by LibraryMetrics.registerMBeans as library:type=Operation,name=<operation>.
+public interface LibraryOperationMXBean {
+    long getCount();
+    long getFailures();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getP999Micros();
+    double getMaxMicros();
+    void reset();
+}
@@ -0,0 +1,304 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// ---------- Headless HTTP front end over a shared Library ----------
+// Endpoints (all responses are JSON):
+//   GET  /search?q=term            items whose title contains term
+//   GET  /books?genre=&author=&from=&to=&available=true   faceted query, with per-genre counts
+//   GET  /items  /members  /loans   listings, capped by ?limit= (default 100)
+//   GET  /overdue                  overdue loans and fines owed as of today
+//   GET  /member/loans?id=M001     a member's open loans
+//   POST /checkout?item=B001&member=M001   (also picks up the member's ready hold)
+//   POST /hold?item=B001&member=M001      queue for an item with no copy on the shelf
+//   POST /hold/cancel?id=<holdId>
+//   GET  /holds?member=M001  or  /holds?item=B001
+//   POST /holds/expire                    end holds that lapsed before today
+//   POST /return?loan=<id>  or  /return?item=B001[&member=M001]   (member picks the copy when several are out)
+// There is no authentication, so the server listens on the loopback interface unless it is given
+// another address to bind (--bind 0.0.0.0 for every interface).
+// Library is thread-safe, so every request runs on its own thread with no extra locking here.
+// Listings and the overdue report read from a LibraryView opened for the request, so each response
+// shows the library at one moment even while other requests are changing it.
+// On JDK 21+ that is a virtual thread per request; older JDKs fall back to a cached platform pool.
+class LibraryServer {
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    LibraryServer(Library library, int port) throws IOException {
+        this(library, InetAddress.getLoopbackAddress(), port);
+    }
+
+    LibraryServer(Library library, InetAddress bind, int port) throws IOException {
+        this.library = library;
+        this.server = HttpServer.create(new InetSocketAddress(bind, port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/search", ex -> handle(ex, "GET", q -> items(library.searchByTitle(param(q, "q")), limit(q))));
+        server.createContext("/books", ex -> handle(ex, "GET", q -> books(q)));
+        server.createContext("/items", ex -> handle(ex, "GET", q -> {
+            try (LibraryView view = library.openView()) { return items(view.allItems(), limit(q)); }
+        }));
+        server.createContext("/members", ex -> handle(ex, "GET", q -> {
+            try (LibraryView view = library.openView()) { return members(view.allMembers(), limit(q)); }
+        }));
+        server.createContext("/loans", ex -> handle(ex, "GET", q -> {
+            try (LibraryView view = library.openView()) { return loans(view.allLoans(), limit(q), library.today()); }
+        }));
+        server.createContext("/member/loans", ex -> handle(ex, "GET", q -> loans(library.openLoansForMember(param(q, "id")), limit(q), library.today())));
+        server.createContext("/overdue", ex -> handle(ex, "GET", q -> overdue()));
+        server.createContext("/checkout", ex -> handle(ex, "POST", q -> loan(library.checkoutItem(param(q, "item"), param(q, "member")), library.today())));
+        server.createContext("/return", ex -> handle(ex, "POST", this::returnLoan));
+        server.createContext("/hold", ex -> handle(ex, "POST", q -> hold(library.placeHold(param(q, "item"), param(q, "member")))));
+        server.createContext("/hold/cancel", ex -> handle(ex, "POST", q -> {
+            library.cancelHold(param(q, "id"));
+            return "{\"cancelled\":" + LibraryBulk.json(q.get("id")) + "}";
+        }));
+        server.createContext("/holds", ex -> handle(ex, "GET", q -> holds(q.containsKey("item")
+                ? library.holdsForItem(q.get("item")) : library.holdsForMember(param(q, "member")))));
+        server.createContext("/holds/expire", ex -> handle(ex, "POST", q -> holds(library.expireHolds(library.today()))));
+    }
+
+    // virtual threads where the JDK has them; looked up reflectively so this still compiles on 17
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (Throwable e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "library-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    void start() { server.start(); }
+
+    int port() { return server.getAddress().getPort(); }
+    String address() { return server.getAddress().getAddress().getHostAddress() + ":" + port(); }
+
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // ---------- request handling ----------
+    interface Handler { String handle(Map<String, String> query) throws Exception; }
+
+    private void handle(HttpExchange ex, String method, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!ex.getRequestMethod().equalsIgnoreCase(method)) {
+                status = 405;
+                body = error("Use " + method);
+            } else {
+                body = handler.handle(query(ex));
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (IllegalStateException e) {
+            status = 409; // not found / already checked out / already returned
+            body = error(e.getMessage());
+        } catch (Exception e) {
+            status = 500;
+            body = error(e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String returnLoan(Map<String, String> q) {
+        String loanId = q.get("loan");
+        if (loanId == null) {
+            String item = param(q, "item"), member = q.get("member");
+            Loan open = null;
+            for (Loan l : library.openLoansForItem(item)) {
+                if (member == null || l.getMemberId().equals(member)) { open = l; break; }
+            }
+            if (open == null) throw new IllegalStateException("No active loan for that item");
+            loanId = open.getLoanId();
+        }
+        Loan loan = library.returnItemByLoanId(loanId);
+        return loan(loan, library.today());
+    }
+
+    private String books(Map<String, String> q) {
+        BookQuery query = new BookQuery();
+        if (q.containsKey("genre")) query.genre(q.get("genre"));
+        if (q.containsKey("author")) query.author(q.get("author"));
+        if (q.containsKey("from") || q.containsKey("to")) {
+            query.years(intParam(q, "from", Integer.MIN_VALUE), intParam(q, "to", Integer.MAX_VALUE));
+        }
+        if (Boolean.parseBoolean(q.get("available"))) query.availableOnly();
+        StringJoiner genres = new StringJoiner(",", "{", "}");
+        for (Map.Entry<String, Integer> e : library.facetCounts(FacetIndex.Facet.GENRE, query).entrySet()) {
+            genres.add(LibraryBulk.json(e.getKey()) + ":" + e.getValue());
+        }
+        List<LibraryItem> found = library.findBooks(query);
+        return "{\"count\":" + found.size() + ",\"genres\":" + genres + ",\"items\":" + items(found, limit(q)) + "}";
+    }
+
+    private String overdue() {
+        LocalDate today = library.today();
+        try (LibraryView view = library.openView()) {
+            StringBuilder sb = new StringBuilder("{\"asOf\":\"").append(today).append("\",\"loans\":");
+            sb.append(loans(view.overdueLoans(today), Integer.MAX_VALUE, today)).append(",\"owed\":{");
+            boolean first = true;
+            for (Map.Entry<String, Double> e : view.finesOwedByMember(today).entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(LibraryBulk.json(e.getKey())).append(':').append(String.format(Locale.ROOT, "%.2f", e.getValue()));
+            }
+            return sb.append("}}").toString();
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> out = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            out.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static String param(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null) throw new IllegalArgumentException("Missing parameter: " + name);
+        return v;
+    }
+
+    private static int intParam(Map<String, String> q, String name, int otherwise) {
+        String v = q.get(name);
+        if (v == null) return otherwise;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + v);
+        }
+    }
+
+    private static int limit(Map<String, String> q) {
+        String v = q.get("limit");
+        if (v == null) return DEFAULT_LIMIT;
+        try {
+            return Math.max(0, Integer.parseInt(v));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit is not a number: " + v);
+        }
+    }
+
+    // ---------- JSON rendering ----------
+    private static String error(String message) {
+        return "{\"error\":" + LibraryBulk.json(message) + "}";
+    }
+
+    private static String items(Iterable<LibraryItem> items, int limit) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        int n = 0;
+        for (LibraryItem it : items) {
+            if (n++ == limit) break;
+            StringBuilder sb = new StringBuilder("{\"id\":").append(LibraryBulk.json(it.getId()))
+                    .append(",\"title\":").append(LibraryBulk.json(it.getTitle()));
+            if (it instanceof Book) {
+                Book b = (Book) it;
+                sb.append(",\"author\":").append(LibraryBulk.json(b.getAuthor()))
+                        .append(",\"year\":").append(b.getYear())
+                        .append(",\"genre\":").append(LibraryBulk.json(b.getGenre()));
+            }
+            out.add(sb.append(",\"available\":").append(it.isAvailable())
+                    .append(",\"copies\":").append(it.getCopies())
+                    .append(",\"availableCopies\":").append(it.getAvailableCopies()).append('}'));
+        }
+        return out.toString();
+    }
+
+    private static String members(Iterable<Member> members, int limit) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        int n = 0;
+        for (Member m : members) {
+            if (n++ == limit) break;
+            out.add("{\"id\":" + LibraryBulk.json(m.getMemberId()) + ",\"name\":" + LibraryBulk.json(m.getName())
+                    + ",\"email\":" + LibraryBulk.json(m.getEmail()) + "}");
+        }
+        return out.toString();
+    }
+
+    private String loans(Iterable<Loan> loans, int limit, LocalDate asOf) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        int n = 0;
+        for (Loan l : loans) {
+            if (n++ == limit) break;
+            out.add(loan(l, asOf));
+        }
+        return out.toString();
+    }
+
+    private String holds(List<Hold> holds) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        for (Hold h : holds) out.add(hold(h));
+        return out.toString();
+    }
+
+    private String hold(Hold h) {
+        return "{\"id\":" + LibraryBulk.json(h.getHoldId()) + ",\"item\":" + LibraryBulk.json(h.getItemId())
+                + ",\"member\":" + LibraryBulk.json(h.getMemberId()) + ",\"placed\":\"" + h.getPlacedOn()
+                + "\",\"ready\":" + (h.isReady() ? "\"" + h.getReadyOn() + "\"" : "null")
+                + ",\"position\":" + library.holdPosition(h) + ",\"expires\":\"" + h.getExpiresOn() + "\"}";
+    }
+
+    private String loan(Loan l, LocalDate asOf) {
+        return "{\"id\":" + LibraryBulk.json(l.getLoanId()) + ",\"item\":" + LibraryBulk.json(l.getItemId())
+                + ",\"member\":" + LibraryBulk.json(l.getMemberId()) + ",\"checkout\":\"" + l.getCheckoutDate()
+                + "\",\"due\":\"" + l.getDueDate() + "\",\"returned\":"
+                + (l.getReturnDate() == null ? "null" : "\"" + l.getReturnDate() + "\"")
+                + ",\"fine\":" + String.format(Locale.ROOT, "%.2f", library.calculateFine(l, asOf)) + "}";
+    }
+
+    // serves a library until the JVM is stopped, checkpointing it in the background and on the way out
+    static void serve(Library library, String saveFile, InetAddress bind, int port) throws IOException, InterruptedException {
+        LibraryServer server = new LibraryServer(library, bind, port);
+        LibraryCheckpointer checkpointer = new LibraryCheckpointer(library, saveFile);
+        checkpointer.start(LibraryManagementSystem.CHECKPOINT_SECONDS);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                checkpointer.close();
+                library.closeJournal();
+                library.closeChangeFeed();
+            } catch (IOException e) {
+                System.err.println("Save on shutdown failed: " + e.getMessage());
+            }
+            stopped.countDown();
+        }));
+        server.start();
+        System.out.println("Library server listening on " + server.address() + " (Ctrl+C to stop)");
+        stopped.await();
+    }
+}
@@ -0,0 +1,382 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// ---------- Compact binary snapshot of a Library ----------
+// Layout (big-endian):
+//   header   int magic "LIBS", int version,
+//            long journalGeneration, long journalOffset (since version 4; 0, 0 if no journal is covered)
+//   strings  int count, then per string: int byteLength, UTF-8 bytes
+//   items    int count, then per item: byte kind, and for a book:
+//            int id, int title, int author, int year, int genre, int copies
+//            (version 1 ended with byte available instead; availability now follows the open loans)
+//            (other item kinds: int length, Java-serialized bytes)
+//   members  int count, then per member: int id, int name, int email
+//   loans    int count, then per loan: int id, int item, int member,
+//            long checkout, long due, long returned (epoch days; NO_DATE if open)
+//   holds    int count, then per hold, each item's in queue order (since version 3):
+//            int id, int item, int member, long placed, long expires, long ready (NO_DATE if waiting)
+//   trailer  int crc32 of everything before it
+// Every string field is an index into the deduplicated string table, so an author or genre shared
+// by thousands of books is stored and decoded once. Loading maps the file read-only.
+// The journal fields say which journal records the snapshot already holds, so a load after a crash
+// between writing the snapshot and cutting the journal does not apply them twice.
+class LibrarySnapshot {
+    static final int MAGIC = 0x4C494253; // "LIBS"
+    static final int VERSION = 4;
+
+    private static final byte KIND_BOOK = 1;
+    private static final byte KIND_SERIALIZED = 2;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    // true if the file starts with the snapshot magic, false for anything else (e.g. legacy serialization)
+    static boolean isSnapshot(File file) throws IOException {
+        if (file.length() < 8) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    // ---------- writing ----------
+    static void write(Library lib, File file) throws IOException {
+        try (LibraryView view = lib.openView()) {
+            write(view, file, true, null);
+        }
+    }
+
+    // returned loans are left out when they have gone to the loan archive instead; covered is the
+    // view's mark in the journal kept next to this file, or null if there is none
+    static void write(LibraryView view, File file, boolean withReturnedLoans, LibraryJournal.Mark covered) throws IOException {
+        // two passes over the view, which sees the same records each time: the first builds the
+        // string table and counts, the second writes, so no copy of the whole library is held
+        Iterable<LibraryItem> items = view.allItems();
+        Iterable<Member> members = view.allMembers();
+        Iterable<Loan> loans = withReturnedLoans ? view.allLoans() : openOnly(view.allLoans());
+        Iterable<Hold> holds = view.allHolds();
+
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int itemCount = 0, memberCount = 0, loanCount = 0, holdCount = 0;
+        for (LibraryItem it : items) {
+            itemCount++;
+            intern(ids, strings, it.getId());
+            intern(ids, strings, it.getTitle());
+            if (it.getClass() == Book.class) {
+                intern(ids, strings, ((Book) it).getAuthor());
+                intern(ids, strings, ((Book) it).getGenre());
+            }
+        }
+        for (Member m : members) {
+            memberCount++;
+            intern(ids, strings, m.getMemberId());
+            intern(ids, strings, m.getName());
+            intern(ids, strings, m.getEmail());
+        }
+        for (Loan l : loans) {
+            loanCount++;
+            intern(ids, strings, l.getLoanId());
+            intern(ids, strings, l.getItemId());
+            intern(ids, strings, l.getMemberId());
+        }
+        for (Hold h : holds) {
+            holdCount++;
+            intern(ids, strings, h.getHoldId());
+            intern(ids, strings, h.getItemId());
+            intern(ids, strings, h.getMemberId());
+        }
+
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOut(fos, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(covered == null ? 0 : covered.generation);
+            out.writeLong(covered == null ? 0 : covered.offset);
+
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+
+            out.writeInt(itemCount);
+            for (LibraryItem it : items) {
+                itemCount--;
+                if (it.getClass() == Book.class) {
+                    Book b = (Book) it;
+                    out.writeByte(KIND_BOOK);
+                    out.writeInt(ids.get(b.getId()));
+                    out.writeInt(ids.get(b.getTitle()));
+                    out.writeInt(ids.get(b.getAuthor()));
+                    out.writeInt(b.getYear());
+                    out.writeInt(ids.get(b.getGenre()));
+                    out.writeInt(b.getCopies());
+                } else {
+                    ByteArrayOutputStream obj = new ByteArrayOutputStream();
+                    try (ObjectOutputStream oos = new ObjectOutputStream(obj)) { oos.writeObject(it); }
+                    out.writeByte(KIND_SERIALIZED);
+                    out.writeInt(obj.size());
+                    obj.writeTo(out);
+                }
+            }
+
+            out.writeInt(memberCount);
+            for (Member m : members) {
+                memberCount--;
+                out.writeInt(ids.get(m.getMemberId()));
+                out.writeInt(ids.get(m.getName()));
+                out.writeInt(ids.get(m.getEmail()));
+            }
+
+            out.writeInt(loanCount);
+            for (Loan l : loans) {
+                loanCount--;
+                out.writeInt(ids.get(l.getLoanId()));
+                out.writeInt(ids.get(l.getItemId()));
+                out.writeInt(ids.get(l.getMemberId()));
+                out.writeLong(l.getCheckoutDate().toEpochDay());
+                out.writeLong(l.getDueDate().toEpochDay());
+                LocalDate returned = l.getReturnDate();
+                out.writeLong(returned == null ? NO_DATE : returned.toEpochDay());
+            }
+
+            out.writeInt(holdCount);
+            for (Hold h : holds) {
+                holdCount--;
+                out.writeInt(ids.get(h.getHoldId()));
+                out.writeInt(ids.get(h.getItemId()));
+                out.writeInt(ids.get(h.getMemberId()));
+                out.writeLong(h.getPlacedOn().toEpochDay());
+                out.writeLong(h.getExpiresOn().toEpochDay());
+                out.writeLong(h.isReady() ? h.getReadyOn().toEpochDay() : NO_DATE);
+            }
+            if ((itemCount | memberCount | loanCount | holdCount) != 0) throw new IOException("View changed between snapshot passes");
+            out.flush();
+            new DataOutputStream(fos).writeInt((int) crc.getValue()); // trailer is not part of the checksum
+            fos.getFD().sync();
+        }
+    }
+
+    private static Iterable<Loan> openOnly(Iterable<Loan> loans) {
+        return () -> new Iterator<Loan>() {
+            private final Iterator<Loan> all = loans.iterator();
+            private Loan next = advance();
+
+            private Loan advance() {
+                while (all.hasNext()) {
+                    Loan l = all.next();
+                    if (l.getReturnDate() == null) return l;
+                }
+                return null;
+            }
+
+            @Override public boolean hasNext() { return next != null; }
+
+            @Override
+            public Loan next() {
+                if (next == null) throw new NoSuchElementException();
+                Loan l = next;
+                next = advance();
+                return l;
+            }
+        };
+    }
+
+    private static void intern(Map<String, Integer> ids, List<String> strings, String s) {
+        if (ids.putIfAbsent(s, strings.size()) == null) strings.add(s);
+    }
+
+    // forwards writes to the file while feeding the checksum
+    private static class CheckedOut extends FilterOutputStream {
+        private final CRC32 crc;
+        CheckedOut(OutputStream out, CRC32 crc) { super(out); this.crc = crc; }
+        @Override public void write(int b) throws IOException { out.write(b); crc.update(b); }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); crc.update(b, off, len); }
+    }
+
+    // ---------- reading ----------
+    static Library read(File file) throws IOException, ClassNotFoundException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot too large to map: " + size + " bytes");
+            if (size < 12) throw new IOException("Snapshot truncated: " + file);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit((int) size - 4));
+            if ((int) crc.getValue() != buf.getInt((int) size - 4)) throw new IOException("Snapshot checksum mismatch: " + file);
+
+            if (buf.getInt() != MAGIC) throw new IOException("Not a library snapshot: " + file);
+            int version = buf.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version);
+            if (version >= 4) buf.position(buf.position() + 16); // journal mark, read by journalMark()
+
+            String[] strings = new String[buf.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int len = buf.getInt();
+                if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+                buf.get(scratch, 0, len);
+                strings[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+            }
+
+            Library lib = new Library();
+            int itemCount = buf.getInt();
+            for (int i = 0; i < itemCount; i++) {
+                byte kind = buf.get();
+                LibraryItem it;
+                if (kind == KIND_BOOK) {
+                    String id = strings[buf.getInt()], title = strings[buf.getInt()], author = strings[buf.getInt()];
+                    int year = buf.getInt();
+                    String genre = strings[buf.getInt()];
+                    int copies = 1;
+                    if (version == 1) buf.get();
+                    else copies = buf.getInt();
+                    it = new Book(id, title, author, year, genre, copies);
+                } else if (kind == KIND_SERIALIZED) {
+                    byte[] obj = new byte[buf.getInt()];
+                    buf.get(obj);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(obj))) {
+                        it = (LibraryItem) ois.readObject();
+                    }
+                } else {
+                    throw new IOException("Unknown item kind " + kind);
+                }
+                lib.restoreItem(it); // not addItem: loading is not an add, so it records no metrics
+            }
+
+            int memberCount = buf.getInt();
+            for (int i = 0; i < memberCount; i++) {
+                lib.restoreMember(new Member(strings[buf.getInt()], strings[buf.getInt()], strings[buf.getInt()]));
+            }
+
+            int loanCount = buf.getInt();
+            for (int i = 0; i < loanCount; i++) {
+                Loan l = new Loan(strings[buf.getInt()], strings[buf.getInt()], strings[buf.getInt()],
+                        LocalDate.ofEpochDay(buf.getLong()), LocalDate.ofEpochDay(buf.getLong()));
+                long returned = buf.getLong();
+                if (returned != NO_DATE) l.markReturned(LocalDate.ofEpochDay(returned));
+                lib.restoreLoan(l);
+            }
+
+            int holdCount = version >= 3 ? buf.getInt() : 0;
+            for (int i = 0; i < holdCount; i++) {
+                Hold h = new Hold(strings[buf.getInt()], strings[buf.getInt()], strings[buf.getInt()],
+                        LocalDate.ofEpochDay(buf.getLong()), LocalDate.ofEpochDay(buf.getLong()));
+                long ready = buf.getLong();
+                if (ready != NO_DATE) h.markReady(LocalDate.ofEpochDay(ready), h.getExpiresOn());
+                lib.restoreHold(h);
+            }
+            return lib;
+        }
+    }
+
+    // the journal records this snapshot already holds, or null if it does not say (before version 4)
+    static LibraryJournal.Mark journalMark(File file) throws IOException {
+        if (!isSnapshot(file)) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readInt();
+            if (in.readInt() < 4) return null;
+            return new LibraryJournal.Mark(in.readLong(), in.readLong());
+        }
+    }
+
+    // legacy library.dat written by ObjectOutputStream before this format existed
+    static Library readSerialized(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (Library) ois.readObject();
+        }
+    }
+
+    // one-time conversion of a serialized library file in place; the original is kept as <file>.bak
+    static void migrate(String filename) throws IOException, ClassNotFoundException {
+        File file = new File(filename);
+        if (isSnapshot(file)) {
+            System.out.println(filename + " is already a binary snapshot.");
+            return;
+        }
+        Library lib = readSerialized(file);
+        Path backup = Paths.get(filename + ".bak");
+        Files.copy(file.toPath(), backup, StandardCopyOption.REPLACE_EXISTING);
+        lib.saveToFile(filename);
+        System.out.println("Migrated " + filename + " (" + lib.allItems().size() + " items, "
+                + lib.allMembers().size() + " members, " + lib.allLoans().size() + " loans); original kept as " + backup);
+    }
+
+    // ---------- cold-start load benchmark ----------
+    // Writes the same generated library in both formats, then times each load in a fresh JVM so
+    // neither run benefits from the other's warmed-up classes or heap.
+    static void benchmark(int itemCount, int runs) throws Exception {
+        Library lib = new Library();
+        Random rnd = new Random(42);
+        String[] genres = {"Programming", "Fiction", "History", "Science", "Poetry", "Biography"};
+        for (int i = 0; i < itemCount; i++) {
+            lib.addItem(new Book(String.format("B%07d", i), "Title " + i + " vol " + rnd.nextInt(50),
+                    "Author " + rnd.nextInt(itemCount / 20 + 1), 1900 + rnd.nextInt(125), genres[rnd.nextInt(genres.length)]));
+        }
+        int memberCount = Math.max(1, itemCount / 10);
+        for (int i = 0; i < memberCount; i++) lib.addMember(new Member("M" + i, "Member " + i, "m" + i + "@example.com"));
+        for (int i = 0; i < itemCount / 2; i++) {
+            Loan l = lib.checkoutItem(String.format("B%07d", i), "M" + rnd.nextInt(memberCount));
+            if (i % 3 != 0) lib.returnItemByLoanId(l.getLoanId());
+        }
+
+        File dir = Files.createTempDirectory("library-bench").toFile();
+        File serialized = new File(dir, "serialized.dat");
+        File binary = new File(dir, "binary.dat");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serialized)))) {
+            oos.writeObject(lib);
+        }
+        write(lib, binary);
+        System.out.printf("%d items, %d members, %d loans%n", itemCount, memberCount, lib.allLoans().size());
+        System.out.printf("file size: serialized=%,d bytes  binary=%,d bytes%n", serialized.length(), binary.length());
+
+        for (int r = 0; r < runs; r++) {
+            System.out.printf("run %d: Library.loadFromFile(serialized)=%s ms  binary=%s ms%n", r + 1,
+                    timeInFreshJvm("load-serialized", serialized), timeInFreshJvm("load", binary));
+        }
+        serialized.delete();
+        binary.delete();
+        dir.delete();
+    }
+
+    private static String timeInFreshJvm(String mode, File file) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "LibrarySnapshot", mode, file.getPath()).redirectErrorStream(true).start();
+        String out;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            out = r.readLine();
+        }
+        p.waitFor();
+        return out;
+    }
+
+    // usage: java LibrarySnapshot migrate <file> | load <file> | load-serialized <file> | bench [items] [runs]
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "bench";
+        switch (mode) {
+            case "migrate": migrate(args.length > 1 ? args[1] : "library.dat"); break;
+            case "load":
+            case "load-serialized": {
+                File file = new File(args[1]);
+                long start = System.nanoTime();
+                Library lib = mode.equals("load") ? read(file) : readSerialized(file);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%.1f%n", elapsed / 1e6);
+                break;
+            }
+            case "bench":
+                benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 200_000, args.length > 2 ? Integer.parseInt(args[2]) : 3);
+                break;
+            default: System.out.println("Unknown mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// ---------- Concurrency stress test for Library checkouts and returns ----------
+// usage: java LibraryStress [--threads 16] [--items 8] [--copies 2] [--ops 200000] [--seed 42]
+// Every thread hammers the same handful of hot items with checkouts and returns, so most
+// checkouts race for the last copy. Even items have one copy and odd items --copies. While the
+// run is going each thread counts the loans it holds per item; that count never exceeds what was
+// really open, so a total above the copy count means two checkouts won the same copy. Afterwards
+// every item must satisfy availableCopies + open loans == copies, a single-copy item may have at
+// most one open loan, and the loan indexes must agree with the loans map. Exits with status 1 if
+// any of these fail.
+public class LibraryStress {
+    public static void main(String[] args) throws Exception {
+        int threads = 16, items = 8, copies = 2, ops = 200_000;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--items": items = Integer.parseInt(args[++i]); break;
+                case "--copies": copies = Integer.parseInt(args[++i]); break;
+                case "--ops": ops = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (!run(threads, items, copies, ops, seed)) System.exit(1);
+    }
+
+    static boolean run(int threads, int itemCount, int copies, int opsPerThread, long seed) throws Exception {
+        Library lib = new Library();
+        String[] ids = new String[itemCount];
+        int[] copiesOf = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            ids[i] = LibraryBenchmark.itemId(i);
+            copiesOf[i] = i % 2 == 0 ? 1 : copies;
+            lib.addItem(new Book(ids[i], "Hot title " + i, "Author", 2000, "Fiction", copiesOf[i]));
+        }
+        for (int t = 0; t < threads; t++) lib.addMember(new Member(LibraryBenchmark.memberId(t), "Member " + t, "m" + t + "@example.com"));
+
+        AtomicIntegerArray outstanding = new AtomicIntegerArray(itemCount); // loans the workers know they hold
+        AtomicInteger oversold = new AtomicInteger();
+        LongAdder checkouts = new LongAdder(), returns = new LongAdder(), rejected = new LongAdder();
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String member = LibraryBenchmark.memberId(t);
+            Random rnd = new Random(seed + t);
+            workers.add(pool.submit(() -> {
+                go.await();
+                Map<Integer, Deque<Loan>> held = new HashMap<>();
+                for (int op = 0; op < opsPerThread; op++) {
+                    int item = rnd.nextInt(itemCount);
+                    Deque<Loan> mine = held.computeIfAbsent(item, k -> new ArrayDeque<>());
+                    if (!mine.isEmpty()) { // hand it back, so copies keep moving
+                        Loan l = mine.pop();
+                        outstanding.decrementAndGet(item);
+                        lib.returnItemByLoanId(l.getLoanId());
+                        returns.increment();
+                        continue;
+                    }
+                    try {
+                        Loan l = lib.checkoutItem(ids[item], member);
+                        mine.push(l);
+                        if (outstanding.incrementAndGet(item) > copiesOf[item]) oversold.incrementAndGet();
+                        checkouts.increment();
+                    } catch (IllegalStateException e) {
+                        rejected.increment(); // every copy was out
+                    }
+                }
+                return null;
+            }));
+        }
+        long t0 = System.nanoTime();
+        go.countDown();
+        for (Future<?> f : workers) f.get();
+        pool.shutdown();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%d threads, %d items: %,d checkouts, %,d returns, %,d rejected in %.2f s%n",
+                threads, itemCount, checkouts.sum(), returns.sum(), rejected.sum(), seconds);
+
+        boolean ok = true;
+        if (oversold.get() > 0) {
+            System.out.printf("FAIL: %d checkouts took a copy that was already out%n", oversold.get());
+            ok = false;
+        }
+        Map<String, Integer> openByItem = new HashMap<>();
+        for (Loan l : lib.allLoans()) if (l.getReturnDate() == null) openByItem.merge(l.getItemId(), 1, Integer::sum);
+        for (int i = 0; i < itemCount; i++) {
+            LibraryItem it = lib.findItemById(ids[i]);
+            int open = openByItem.getOrDefault(ids[i], 0);
+            int indexed = lib.openLoansForItem(ids[i]).size();
+            if (it.getAvailableCopies() + open != it.getCopies()) {
+                System.out.printf("FAIL: %s has %d available + %d open loans but %d copies%n", ids[i], it.getAvailableCopies(), open, it.getCopies());
+                ok = false;
+            }
+            if (it.getCopies() == 1 && open > 1) {
+                System.out.printf("FAIL: %s has one copy but %d open loans%n", ids[i], open);
+                ok = false;
+            }
+            if (indexed != open) {
+                System.out.printf("FAIL: %s has %d open loans but the item index lists %d%n", ids[i], open, indexed);
+                ok = false;
+            }
+            if (open != outstanding.get(i)) {
+                System.out.printf("FAIL: %s has %d open loans but the workers hold %d%n", ids[i], open, outstanding.get(i));
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        return ok;
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// ---------- Point-in-time, read-only view of a Library ----------
+// Opening a view copies nothing: it registers with the library, and from then on every writer,
+// before it changes an item, member, loan or hold queue, hands each open view a frozen copy of
+// that record as it was (or "absent", for something new), unless the view already has one.
+// Reading a record prefers that pre-image and otherwise copies the live record, checking again
+// afterwards in case a writer got to it meanwhile. The result is the library exactly as it stood
+// when the view was opened, however long the reader takes, while writers only pay for the first
+// change to each record. Records handed out are detached copies; changing them changes nothing.
+// Listings are lazy: they walk the live maps and copy one record at a time as it is handed out,
+// so a listing costs a reference per key, not a copy of the library.
+// Edits made straight through LibraryItem.setTitle/setAvailable bypass the checkpoint lock, so one
+// racing the opening of a view may be seen by it.
+class LibraryView implements AutoCloseable {
+    private final Library library;
+    private final LibraryJournal.Mark journalMark;
+    final Versions<LibraryItem, LibraryItem> items;
+    final Versions<Member, Member> members;
+    final Versions<Loan, Loan> loans;
+    final Versions<HoldQueue, List<Hold>> holds; // per item, in queue order
+
+    LibraryView(Library library, Map<String, LibraryItem> items, Map<String, Member> members,
+                Map<String, Loan> loans, Map<String, HoldQueue> holdQueues, LibraryJournal.Mark journalMark) {
+        this.library = library;
+        this.journalMark = journalMark;
+        this.items = new Versions<>(items, LibraryView::freeze);
+        this.members = new Versions<>(members, m -> new Member(m.getMemberId(), m.getName(), m.getEmail()));
+        this.loans = new Versions<>(loans, LibraryView::freeze);
+        this.holds = new Versions<>(holdQueues, LibraryView::freeze);
+    }
+
+    // the journal records covered by this view, null without a journal; the rest were appended after it was opened
+    LibraryJournal.Mark journalMark() { return journalMark; }
+
+    public LibraryItem findItemById(String id) { return items.find(id); }
+    public Member findMember(String memberId) { return members.find(memberId); }
+    public Loan findLoan(String loanId) { return loans.find(loanId); }
+
+    // each pass over these walks the records afresh, and every pass sees the same records
+    public Iterable<LibraryItem> allItems() { return items::iterator; }
+    public Iterable<Member> allMembers() { return members::iterator; }
+    public Iterable<Loan> allLoans() { return loans::iterator; }
+
+    // every hold, each item's in queue order
+    public Iterable<Hold> allHolds() {
+        return () -> new Iterator<Hold>() {
+            private final Iterator<List<Hold>> queues = holds.iterator();
+            private Iterator<Hold> queue = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!queue.hasNext() && queues.hasNext()) queue = queues.next().iterator();
+                return queue.hasNext();
+            }
+
+            @Override
+            public Hold next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return queue.next();
+            }
+        };
+    }
+
+    // the same reports as Library's, from its due-date index: the loans indexed as overdue now, as
+    // the view saw them, plus any that were overdue at opening and have been returned since
+    public List<Loan> overdueLoans(LocalDate asOf) {
+        List<Loan> overdue = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (Loan live : library.openLoansDueBefore(asOf)) {
+            visited.add(live.getLoanId());
+            Loan l = loans.find(live.getLoanId(), live);
+            if (l != null && l.getReturnDate() == null) overdue.add(l); // null: opened after the view
+        }
+        for (Map.Entry<String, Optional<Loan>> e : loans.before.entrySet()) {
+            Loan l = e.getValue().orElse(null);
+            if (l != null && l.getReturnDate() == null && l.isOverdue(asOf) && !visited.contains(e.getKey())) overdue.add(l);
+        }
+        overdue.sort(Comparator.comparing(Loan::getDueDate));
+        return overdue;
+    }
+
+    public Map<String, Double> finesOwedByMember(LocalDate asOf) {
+        Map<String, Double> owed = new TreeMap<>();
+        for (Loan l : overdueLoans(asOf)) owed.merge(l.getMemberId(), library.calculateFine(l, asOf), Double::sum);
+        return owed;
+    }
+
+    @Override
+    public void close() { library.closeView(this); }
+
+    // ---------- one kind of record: the live map, plus pre-images of what changed since opening ----------
+    static final class Versions<V, T> {
+        private final Map<String, V> live;
+        private final Function<V, T> freeze;
+        private final Map<String, Optional<T>> before = new ConcurrentHashMap<>(); // empty: absent when opened
+
+        Versions(Map<String, V> live, Function<V, T> freeze) {
+            this.live = live;
+            this.freeze = freeze;
+        }
+
+        // writers call this before changing or replacing the record under key, or adding one there
+        void keep(String key) {
+            if (!before.containsKey(key)) before.computeIfAbsent(key, k -> Optional.ofNullable(live.get(k)).map(freeze));
+        }
+
+        // as keep, for a record the caller already holds and is about to change
+        void keep(String key, V current) {
+            if (!before.containsKey(key)) before.computeIfAbsent(key, k -> Optional.ofNullable(current).map(freeze));
+        }
+
+        T find(String key) {
+            return find(key, live.get(key));
+        }
+
+        // as find, for a record the caller already looked up in the live map
+        T find(String key, V current) {
+            Optional<T> kept = before.get(key);
+            if (kept != null) return kept.orElse(null);
+            return copyOf(key, current);
+        }
+
+        // a copy of the live record, unless a writer changed it while it was being copied
+        private T copyOf(String key, V current) {
+            T copy = current == null ? null : freeze.apply(current);
+            Optional<T> kept = before.get(key);
+            return kept != null ? kept.orElse(null) : copy;
+        }
+
+        // every record as of opening, one copy at a time: the record under each key the live map had
+        // when the walk began, then the pre-images of records removed before that. Only the keys are
+        // taken up front; keys added since opening resolve to their "absent" pre-image and are skipped.
+        Iterator<T> iterator() {
+            String[] keys = live.keySet().toArray(new String[0]);
+            return new Iterator<T>() {
+                private int at;
+                private Iterator<T> removed; // set once the keys are used up
+                private T next = advance();
+
+                private T advance() {
+                    while (at < keys.length) {
+                        T t = find(keys[at++]);
+                        if (t != null) return t;
+                    }
+                    if (removed == null) removed = removedBefore(keys);
+                    return removed.hasNext() ? removed.next() : null;
+                }
+
+                @Override public boolean hasNext() { return next != null; }
+
+                @Override
+                public T next() {
+                    if (next == null) throw new NoSuchElementException();
+                    T t = next;
+                    next = advance();
+                    return t;
+                }
+            };
+        }
+
+        // pre-images whose keys are not among keys: records gone from the live map before the walk began
+        private Iterator<T> removedBefore(String[] keys) {
+            Map<String, T> missing = new HashMap<>();
+            for (Map.Entry<String, Optional<T>> e : before.entrySet()) e.getValue().ifPresent(t -> missing.put(e.getKey(), t));
+            for (int i = 0; i < keys.length && !missing.isEmpty(); i++) missing.remove(keys[i]);
+            return missing.values().iterator();
+        }
+    }
+
+    // ---------- frozen copies ----------
+    private static LibraryItem freeze(LibraryItem it) {
+        LibraryItem copy;
+        if (it.getClass() == Book.class) {
+            Book b = (Book) it;
+            copy = new Book(b.getId(), b.getTitle(), b.getAuthor(), b.getYear(), b.getGenre(), b.getCopies());
+        } else {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) { out.writeObject(it); }
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                    copy = (LibraryItem) in.readObject();
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Cannot copy item " + it.getId(), e);
+            }
+        }
+        copy.resetAvailableCopies(copy.getCopies() - it.getAvailableCopies());
+        return copy;
+    }
+
+    private static Loan freeze(Loan l) {
+        Loan copy = new Loan(l.getLoanId(), l.getItemId(), l.getMemberId(), l.getCheckoutDate(), l.getDueDate());
+        LocalDate returned = l.getReturnDate();
+        if (returned != null) copy.markReturned(returned);
+        return copy;
+    }
+
+    private static List<Hold> freeze(HoldQueue q) {
+        List<Hold> copy = new ArrayList<>();
+        synchronized (q) {
+            for (Hold h : q.snapshot()) {
+                Hold c = new Hold(h.getHoldId(), h.getItemId(), h.getMemberId(), h.getPlacedOn(), h.getExpiresOn());
+                if (h.isReady()) c.markReady(h.getReadyOn(), h.getExpiresOn());
+                copy.add(c);
+            }
+        }
+        return copy;
+    }
+}
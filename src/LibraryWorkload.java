@@ -0,0 +1,500 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// ---------- Seeded synthetic workloads for Library: generate a trace, replay it, compare runs ----------
+// usage: java LibraryWorkload generate <trace> [--seed 42] [--items 100000] [--ops 1000000] [--zipf 1.0]
+//                                     [--mix search=60,checkout=18,return=16,hold=4,cancel=2,day=0.01]
+//                                     [--burst 0.0005,100] [--start 2024-01-01]
+//        java LibraryWorkload replay <trace> [--rate ops/s] [--threads 1] [--expect checksum]
+// A trace starts from the library LibraryBenchmark.generate builds for its item count, seed and
+// start date, so every replay begins from the same state. Items are picked by Zipf popularity over
+// a seeded shuffle of the catalogue; operations follow the weighted mix, with bursts of searches
+// for one hot title mixed in, and "day" moves the simulated date on and expires lapsed holds.
+// The generator keeps a rough model of what is out and who is queued so returns, holds and
+// cancellations mostly name something real; the rest are rejected on replay and counted, not
+// errors. Replay runs flat out, or open-loop at --rate, where latency is taken from each op's
+// scheduled start so a stall is charged to everything queued behind it. Single-threaded replays
+// of one trace end in the same state, so their checksums must match; with more threads the
+// interleaving, and so the outcome, varies.
+public class LibraryWorkload {
+    private static final int MAGIC = 0x4C494257; // "LIBW"
+    private static final int VERSION = 1;
+
+    // operation types, in trace and report order
+    private static final byte SEARCH = 0, CHECKOUT = 1, RETURN = 2, HOLD = 3, CANCEL = 4, DAY = 5;
+    private static final String[] NAMES = {"search", "checkout", "return", "hold", "cancel", "day"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: java LibraryWorkload generate|replay <trace> [options]");
+            System.exit(2);
+        }
+        switch (args[0]) {
+            case "generate": generate(args); break;
+            case "replay": if (!replay(args)) System.exit(1); break;
+            default: throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+    }
+
+    // ---------- trace: the catalogue it starts from, then one record per operation ----------
+    // header [int magic][int version][long seed][int items][long startEpochDay][int ops]
+    // op     [byte type] then SEARCH: utf term; CHECKOUT/HOLD/CANCEL: int item, int member; RETURN: int item
+    static final class Trace {
+        long seed;
+        int items;
+        LocalDate start;
+        int size;
+        byte[] types = new byte[1024];
+        int[] itemArgs = new int[1024];
+        int[] memberArgs = new int[1024];
+        final Map<Integer, String> terms = new HashMap<>(); // op index -> search term
+
+        void add(byte type, int item, int member, String term) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                itemArgs = Arrays.copyOf(itemArgs, size * 2);
+                memberArgs = Arrays.copyOf(memberArgs, size * 2);
+            }
+            types[size] = type;
+            itemArgs[size] = item;
+            memberArgs[size] = member;
+            if (term != null) terms.put(size, term);
+            size++;
+        }
+
+        void write(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(seed);
+                out.writeInt(items);
+                out.writeLong(start.toEpochDay());
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeByte(types[i]);
+                    switch (types[i]) {
+                        case SEARCH: out.writeUTF(terms.get(i)); break;
+                        case RETURN: out.writeInt(itemArgs[i]); break;
+                        case DAY: break;
+                        default: out.writeInt(itemArgs[i]); out.writeInt(memberArgs[i]);
+                    }
+                }
+            }
+        }
+
+        static Trace read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                if (in.readInt() != MAGIC) throw new IOException("Not a workload trace: " + file);
+                int version = in.readInt();
+                if (version != VERSION) throw new IOException("Unsupported trace version " + version);
+                Trace t = new Trace();
+                t.seed = in.readLong();
+                t.items = in.readInt();
+                t.start = LocalDate.ofEpochDay(in.readLong());
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    byte type = in.readByte();
+                    switch (type) {
+                        case SEARCH: t.add(type, 0, 0, in.readUTF()); break;
+                        case RETURN: t.add(type, in.readInt(), 0, null); break;
+                        case DAY: t.add(type, 0, 0, null); break;
+                        case CHECKOUT: case HOLD: case CANCEL: t.add(type, in.readInt(), in.readInt(), null); break;
+                        default: throw new IOException("Unknown operation type " + type + " at " + i);
+                    }
+                }
+                return t;
+            }
+        }
+    }
+
+    // ---------- generation ----------
+    private static void generate(String[] args) throws IOException {
+        File file = new File(args[1]);
+        long seed = 42;
+        int items = 100_000, ops = 1_000_000;
+        double zipf = 1.0, burstChance = 0.0005;
+        int burstLength = 100;
+        String mix = "search=60,checkout=18,return=16,hold=4,cancel=2,day=0.01";
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--items": items = Integer.parseInt(args[++i]); break;
+                case "--ops": ops = Integer.parseInt(args[++i]); break;
+                case "--zipf": zipf = Double.parseDouble(args[++i]); break;
+                case "--mix": mix = args[++i]; break;
+                case "--burst": {
+                    String[] b = args[++i].split(",");
+                    burstChance = Double.parseDouble(b[0]);
+                    burstLength = Integer.parseInt(b[1]);
+                    break;
+                }
+                case "--start": start = LocalDate.parse(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        long t0 = System.nanoTime();
+        Trace t = new Generator(seed, items, zipf, weights(mix), burstChance, burstLength).generate(ops, start);
+        t.write(file);
+        int[] counts = new int[NAMES.length];
+        for (int i = 0; i < t.size; i++) counts[t.types[i]]++;
+        System.out.printf("%,d operations over %,d items (seed %d, zipf %.2f) written to %s in %.1f s%n",
+                t.size, items, seed, zipf, file, (System.nanoTime() - t0) / 1e9);
+        for (int k = 0; k < NAMES.length; k++) System.out.printf("  %-9s %,10d%n", NAMES[k], counts[k]);
+    }
+
+    private static double[] weights(String mix) {
+        double[] w = new double[NAMES.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int k = Arrays.asList(NAMES).indexOf(kv[0].trim());
+            if (kv.length != 2 || k < 0) throw new IllegalArgumentException("Bad mix entry " + part);
+            w[k] = Double.parseDouble(kv[1]);
+        }
+        return w;
+    }
+
+    static final class Generator {
+        private final long seed;
+        private final Random rnd;
+        private final int items, members;
+        private final int[] byRank;      // popularity rank -> item, a seeded shuffle
+        private final double[] cdf;      // Zipf cumulative probability by rank
+        private final double[] mixCdf;
+        private final double burstChance;
+        private final int burstLength;
+
+        // the model: items out on loan (sampled for returns), queued holds, and ready holds awaiting pickup
+        private final BitSet out = new BitSet();
+        private final IntList onLoan = new IntList();
+        private final Map<Integer, ArrayDeque<Integer>> queues = new HashMap<>();
+        private final List<int[]> waiting = new ArrayList<>();       // {item, member}, for cancellations
+        private final ArrayDeque<int[]> pickups = new ArrayDeque<>(); // {item, member}
+
+        Generator(long seed, int items, double s, double[] weights, double burstChance, int burstLength) {
+            this.seed = seed;
+            this.rnd = new Random(seed);
+            this.items = items;
+            this.members = Math.max(1, items / 10); // as LibraryBenchmark.generate registers them
+            this.burstChance = burstChance;
+            this.burstLength = burstLength;
+            byRank = new int[items];
+            for (int i = 0; i < items; i++) byRank[i] = i;
+            for (int i = items - 1; i > 0; i--) {
+                int j = rnd.nextInt(i + 1);
+                int tmp = byRank[i];
+                byRank[i] = byRank[j];
+                byRank[j] = tmp;
+            }
+            cdf = new double[items];
+            double sum = 0;
+            for (int r = 0; r < items; r++) cdf[r] = sum += 1 / Math.pow(r + 1, s);
+            for (int r = 0; r < items; r++) cdf[r] /= sum;
+            mixCdf = new double[weights.length];
+            double total = Arrays.stream(weights).sum();
+            double acc = 0;
+            for (int k = 0; k < weights.length; k++) mixCdf[k] = (acc += weights[k]) / total;
+            // LibraryBenchmark.generate leaves every tenth book on loan
+            for (int i = 0; i < items; i += 10) {
+                out.set(i);
+                onLoan.add(i);
+            }
+        }
+
+        int popularItem() {
+            int r = Arrays.binarySearch(cdf, rnd.nextDouble());
+            return byRank[Math.min(items - 1, r < 0 ? -r - 1 : r)];
+        }
+
+        Trace generate(int ops, LocalDate start) {
+            Trace t = new Trace();
+            t.seed = seed;
+            t.items = items;
+            t.start = start;
+            while (t.size < ops) {
+                if (rnd.nextDouble() < burstChance) {
+                    String term = titleTerm(popularItem());
+                    for (int i = 0; i < burstLength && t.size < ops; i++) t.add(SEARCH, 0, 0, term);
+                    continue;
+                }
+                int k = Arrays.binarySearch(mixCdf, rnd.nextDouble());
+                next(t, (byte) (k < 0 ? -k - 1 : k));
+            }
+            return t;
+        }
+
+        private void next(Trace t, byte type) {
+            switch (type) {
+                case SEARCH:
+                    t.add(SEARCH, 0, 0, rnd.nextInt(4) == 0 ? LibraryBenchmark.WORDS[rnd.nextInt(LibraryBenchmark.WORDS.length)] : titleTerm(popularItem()));
+                    break;
+                case CHECKOUT: {
+                    boolean pickup = !pickups.isEmpty() && rnd.nextBoolean();
+                    int[] p = pickup ? pickups.poll() : new int[]{popularItem(), rnd.nextInt(members)};
+                    if (pickup || !out.get(p[0])) { // a ready hold's copy is already out; only its loan is new
+                        out.set(p[0]);
+                        onLoan.add(p[0]);
+                    }
+                    t.add(CHECKOUT, p[0], p[1], null);
+                    break;
+                }
+                case RETURN: {
+                    if (onLoan.size() == 0) {
+                        next(t, CHECKOUT);
+                        break;
+                    }
+                    int item = onLoan.removeAt(rnd.nextInt(onLoan.size()));
+                    ArrayDeque<Integer> q = queues.get(item);
+                    if (q != null && !q.isEmpty()) pickups.add(new int[]{item, q.poll()}); // the copy goes to the hold
+                    else out.clear(item);
+                    t.add(RETURN, item, 0, null);
+                    break;
+                }
+                case HOLD: {
+                    int item = popularItem(), member = rnd.nextInt(members);
+                    if (!out.get(item)) { // on the shelf after all: borrowed instead
+                        out.set(item);
+                        onLoan.add(item);
+                        t.add(CHECKOUT, item, member, null);
+                        break;
+                    }
+                    queues.computeIfAbsent(item, k -> new ArrayDeque<>()).add(member);
+                    waiting.add(new int[]{item, member});
+                    t.add(HOLD, item, member, null);
+                    break;
+                }
+                case CANCEL: {
+                    if (waiting.isEmpty()) {
+                        next(t, HOLD);
+                        break;
+                    }
+                    int i = rnd.nextInt(waiting.size());
+                    int[] h = waiting.get(i);
+                    waiting.set(i, waiting.get(waiting.size() - 1));
+                    waiting.remove(waiting.size() - 1);
+                    ArrayDeque<Integer> q = queues.get(h[0]);
+                    if (q != null) q.remove(h[1]);
+                    t.add(CANCEL, h[0], h[1], null);
+                    break;
+                }
+                default:
+                    t.add(DAY, 0, 0, null);
+            }
+        }
+
+        // "volume <n>" is unique to one title, and so finds the hot item rather than thousands
+        private static String titleTerm(int item) { return "volume " + item; }
+    }
+
+    // growable int list with O(1) removal by swapping in the last element
+    private static final class IntList {
+        private int[] a = new int[1024];
+        private int n;
+        private final Map<Integer, Integer> pos = new HashMap<>();
+
+        void add(int v) {
+            if (pos.containsKey(v)) return;
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            pos.put(v, n);
+            a[n++] = v;
+        }
+
+        int removeAt(int i) {
+            int v = a[i];
+            a[i] = a[--n];
+            pos.put(a[i], i);
+            pos.remove(v);
+            return v;
+        }
+
+        int size() { return n; }
+    }
+
+    // ---------- replay ----------
+    private static boolean replay(String[] args) throws Exception {
+        File file = new File(args[1]);
+        double rate = 0; // ops/s; 0 is as fast as possible
+        int threads = 1;
+        String expect = null;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--expect": expect = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Trace t = Trace.read(file);
+        long t0 = System.nanoTime();
+        Library lib = LibraryBenchmark.generate(t.items, t.seed, t.start);
+        System.out.printf("%,d operations from %s; library of %,d items built in %.1f s%n",
+                t.size, file, t.items, (System.nanoTime() - t0) / 1e9);
+
+        Result r = new Replayer(lib, t, rate).run(threads);
+        String checksum = checksum(lib);
+        System.out.printf("%,d ops in %.2f s: %,.0f ops/s%s%n", t.size, r.seconds, t.size / r.seconds,
+                rate > 0 ? String.format(" (target %,.0f)", rate) : "");
+        System.out.printf("  %-9s %10s %10s %10s %10s %10s %10s%n", "op", "count", "rejected", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (int k = 0; k < NAMES.length; k++) {
+            if (r.counts[k] == 0) continue;
+            LatencyHistogram h = r.latency[k];
+            System.out.printf("  %-9s %,10d %,10d %10.1f %10.1f %10.1f %10.1f%n", NAMES[k], r.counts[k], r.rejected[k],
+                    Math.min(h.percentile(0.50), r.max[k]) / 1e3, Math.min(h.percentile(0.99), r.max[k]) / 1e3,
+                    Math.min(h.percentile(0.999), r.max[k]) / 1e3, r.max[k] / 1e3);
+        }
+        System.out.println("final state checksum " + checksum + (threads > 1 ? " (multi-threaded: not reproducible)" : ""));
+        if (expect != null && !expect.equals(checksum)) {
+            System.out.println("MISMATCH: expected " + expect);
+            return false;
+        }
+        return true;
+    }
+
+    static final class Result {
+        final long[] counts = new long[NAMES.length];
+        final long[] rejected = new long[NAMES.length];
+        final long[] max = new long[NAMES.length];
+        final LatencyHistogram[] latency = new LatencyHistogram[NAMES.length];
+        double seconds;
+
+        Result() {
+            for (int k = 0; k < NAMES.length; k++) latency[k] = new LatencyHistogram();
+        }
+
+        synchronized void merge(long[] counts, long[] rejected, long[] max) {
+            for (int k = 0; k < NAMES.length; k++) {
+                this.counts[k] += counts[k];
+                this.rejected[k] += rejected[k];
+                this.max[k] = Math.max(this.max[k], max[k]);
+            }
+        }
+    }
+
+    static final class Replayer {
+        private final Library lib;
+        private final Trace t;
+        private final double rate;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile LocalDate today;
+        private final Result result = new Result();
+        private long startNanos;
+
+        Replayer(Library lib, Trace t, double rate) {
+            this.lib = lib;
+            this.t = t;
+            this.rate = rate;
+            this.today = t.start;
+        }
+
+        Result run(int threads) throws Exception {
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread th = new Thread(r, "workload-replay");
+                th.setDaemon(true);
+                return th;
+            });
+            try {
+                startNanos = System.nanoTime();
+                List<Future<?>> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) workers.add(pool.submit(() -> { work(); return null; }));
+                for (Future<?> f : workers) f.get();
+                result.seconds = (System.nanoTime() - startNanos) / 1e9;
+            } finally {
+                pool.shutdownNow();
+            }
+            return result;
+        }
+
+        private void work() {
+            long[] counts = new long[NAMES.length], rejected = new long[NAMES.length], max = new long[NAMES.length];
+            int i;
+            while ((i = next.getAndIncrement()) < t.size) {
+                long start = System.nanoTime();
+                if (rate > 0) {
+                    long due = startNanos + (long) (i * 1e9 / rate); // open loop: the schedule, not the last op, sets the pace
+                    while (start < due) {
+                        LockSupport.parkNanos(due - start);
+                        start = System.nanoTime();
+                    }
+                    start = due;
+                }
+                byte type = t.types[i];
+                if (!apply(type, i)) rejected[type]++;
+                long nanos = System.nanoTime() - start;
+                result.latency[type].record(nanos);
+                counts[type]++;
+                if (nanos > max[type]) max[type] = nanos;
+            }
+            result.merge(counts, rejected, max);
+        }
+
+        // false if the library turned the operation down
+        private boolean apply(byte type, int i) {
+            String item = LibraryBenchmark.itemId(t.itemArgs[i]);
+            String member = LibraryBenchmark.memberId(t.memberArgs[i]);
+            try {
+                switch (type) {
+                    case SEARCH: return !lib.searchByTitle(t.terms.get(i)).isEmpty();
+                    case CHECKOUT: lib.checkoutItem(item, member); return true;
+                    case RETURN: {
+                        Loan l = lib.findLoanByItemId(item);
+                        if (l == null) return false;
+                        lib.returnItemByLoanId(l.getLoanId());
+                        return true;
+                    }
+                    case HOLD: lib.placeHold(item, member); return true;
+                    case CANCEL:
+                        for (Hold h : lib.holdsForItem(item)) {
+                            if (h.getMemberId().equals(member)) {
+                                lib.cancelHold(h.getHoldId());
+                                return true;
+                            }
+                        }
+                        return false;
+                    default: {
+                        LocalDate day;
+                        synchronized (this) {
+                            day = today = today.plusDays(1);
+                        }
+                        lib.setClock(Clock.fixed(day.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC));
+                        lib.expireHolds(day);
+                        return true;
+                    }
+                }
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        }
+    }
+
+    // ---------- checksum of the final state, ignoring the random loan and hold ids ----------
+    static String checksum(Library lib) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        List<String> lines = new ArrayList<>();
+        for (LibraryItem it : lib.allItems()) lines.add("I " + it.getId() + " " + it.getCopies() + " " + it.getAvailableCopies());
+        for (Member m : lib.allMembers()) lines.add("M " + m.getMemberId());
+        for (Loan l : lib.allLoans()) {
+            lines.add("L " + l.getItemId() + " " + l.getMemberId() + " " + l.getCheckoutDate() + " " + l.getDueDate() + " " + l.getReturnDate());
+        }
+        Collections.sort(lines);
+        List<String> itemIds = new ArrayList<>();
+        for (LibraryItem it : lib.allItems()) itemIds.add(it.getId());
+        Collections.sort(itemIds);
+        for (String id : itemIds) {
+            for (Hold h : lib.holdsForItem(id)) lines.add("H " + id + " " + h.getMemberId() + " " + h.isReady() + " " + h.getExpiresOn());
+        }
+        for (String line : lines) {
+            md.update(line.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        byte[] digest = md.digest();
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 8; i++) hex.append(String.format("%02x", digest[i]));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,531 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+// ---------- Cold tier for returned loans: immutable on-disk segments ----------
+// Each archival pass writes one segment holding a batch of returned loans sorted by loan id:
+//   int magic "LSEG", int version, int firstGeneration, records..., footer, long footerOffset, int magic
+//   record: UTF loanId, UTF itemId, UTF memberId, long checkout, long due, long returned (epoch days)
+//   footer: int recordCount, int sparseCount, (UTF loanId, long offset) every INDEX_INTERVAL records,
+//           int bloomWords, long[] bloom filter over member ids, int bloomWords, long[] bloom over loan ids
+// Only the footers are kept in memory, so heap use is a few bytes per archived loan rather than
+// a Loan object. A lookup by id reads at most INDEX_INTERVAL records of the segments whose loan id
+// bloom filter admits it; a lookup by member scans only the segments whose member bloom admits it.
+// Version 1 segments have no firstGeneration and no loan id bloom, and are always searched.
+// After each append the newest segments are merged while the one before them is no larger than
+// they are together, so each segment is bigger than all newer ones combined and a catalogue of n
+// archived loans spans at most about log2(n) segments. A merge is written as a new generation that
+// records the oldest generation it covers; if a crash leaves its inputs behind, open() sees they
+// are covered and deletes them. Readers still inside an input finish on their open channel.
+// File channels are opened on first read and kept in a small LRU cache, so a long-lived archive
+// does not hold a descriptor per segment.
+class LoanArchive implements Closeable {
+    static final String SUFFIX = ".archive";
+    private static final int MAGIC = 0x4C534547; // "LSEG"
+    private static final int VERSION = 2;
+    private static final int INDEX_INTERVAL = 64;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int OPEN_CHANNELS = 16;
+
+    private final File dir;
+    private final Path snapshotFile;
+    private volatile List<Segment> segments = Collections.emptyList(); // oldest first, replaced whole
+    private final Map<Segment, FileChannel> channels = new LinkedHashMap<>(16, 0.75f, true); // guarded by itself
+    private int nextGeneration = 1;
+    private volatile boolean closed;
+
+    private LoanArchive(File dir, Path snapshotFile) {
+        this.dir = dir;
+        this.snapshotFile = snapshotFile;
+    }
+
+    boolean isFor(Path snapshot) { return snapshotFile.equals(snapshot.toAbsolutePath()); }
+
+    static File dirFor(String snapshotFile) { return new File(snapshotFile + SUFFIX); }
+
+    static LoanArchive open(String snapshotFile) throws IOException {
+        LoanArchive archive = new LoanArchive(dirFor(snapshotFile), Paths.get(snapshotFile).toAbsolutePath());
+        Files.createDirectories(archive.dir.toPath());
+        File[] files = archive.dir.listFiles((d, name) -> name.startsWith("segment-"));
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+        List<Segment> open = new ArrayList<>();
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) { f.delete(); continue; } // unfinished write
+            Segment seg = Segment.open(f);
+            // inputs of a merge that finished, left behind by a crash before they were deleted
+            while (!open.isEmpty() && open.get(open.size() - 1).generation >= seg.firstGeneration) {
+                Files.deleteIfExists(open.remove(open.size() - 1).file.toPath());
+            }
+            open.add(seg);
+            archive.nextGeneration = Math.max(archive.nextGeneration, seg.generation + 1);
+        }
+        archive.segments = Collections.unmodifiableList(open);
+        return archive;
+    }
+
+    public int segmentCount() { return segments.size(); }
+
+    public long archivedLoanCount() {
+        long n = 0;
+        for (Segment s : segments) n += s.count;
+        return n;
+    }
+
+    // writes the loans, which must all be returned, as one new durable segment, then merges as needed
+    synchronized void append(Collection<Loan> returned) throws IOException {
+        if (returned.isEmpty()) return;
+        List<Loan> sorted = new ArrayList<>(returned);
+        sorted.sort(Comparator.comparing(Loan::getLoanId));
+        int generation = nextGeneration;
+        File target = new File(dir, String.format("segment-%06d.seg", generation));
+        Segment seg = write(target, generation, sorted.iterator(), sorted.size());
+        List<Segment> next = new ArrayList<>(segments);
+        next.add(seg);
+        segments = Collections.unmodifiableList(next);
+        nextGeneration = generation + 1;
+        mergeTail();
+    }
+
+    // merges the newest segments while the one before them is no bigger than they are together
+    private void mergeTail() throws IOException {
+        List<Segment> segs = segments;
+        int from = segs.size() - 1;
+        long newer = segs.get(from).count;
+        while (from > 0 && segs.get(from - 1).count <= newer) newer += segs.get(--from).count;
+        if (from == segs.size() - 1) return;
+
+        List<Segment> inputs = segs.subList(from, segs.size());
+        int generation = nextGeneration;
+        File target = new File(dir, String.format("segment-%06d.seg", generation));
+        Segment merged;
+        try (MergeCursor cursor = new MergeCursor(inputs)) {
+            merged = write(target, inputs.get(0).firstGeneration, generation, cursor, (int) Math.min(newer, Integer.MAX_VALUE));
+        }
+        nextGeneration = generation + 1;
+        List<Segment> next = new ArrayList<>(segs.subList(0, from));
+        next.add(merged);
+        segments = Collections.unmodifiableList(next);
+        for (Segment s : inputs) {
+            retire(s); // after the swap, so a reader turned away finds the merge on its retry
+            Files.deleteIfExists(s.file.toPath());
+        }
+    }
+
+    private Segment write(File target, int generation, Iterator<Loan> sorted, int expected) throws IOException {
+        return write(target, generation, generation, sorted, expected);
+    }
+
+    // writes loans sorted by id through a temp file, then renames it over target
+    private Segment write(File target, int firstGeneration, int generation, Iterator<Loan> sorted, int expected) throws IOException {
+        File tmp = new File(dir, target.getName() + ".tmp");
+        long[] memberBloom = new long[Math.max(1, (int) (((long) expected * BLOOM_BITS_PER_KEY + 63) / 64))];
+        long[] loanBloom = new long[memberBloom.length];
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            CountingOut counter = new CountingOut(new BufferedOutputStream(fos, 1 << 16));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(firstGeneration);
+            List<String> sparseKeys = new ArrayList<>();
+            List<Long> sparseOffsets = new ArrayList<>();
+            int count = 0;
+            while (sorted.hasNext()) {
+                Loan l = sorted.next();
+                if (count++ % INDEX_INTERVAL == 0) {
+                    sparseKeys.add(l.getLoanId());
+                    sparseOffsets.add(counter.count);
+                }
+                out.writeUTF(l.getLoanId());
+                out.writeUTF(l.getItemId());
+                out.writeUTF(l.getMemberId());
+                out.writeLong(l.getCheckoutDate().toEpochDay());
+                out.writeLong(l.getDueDate().toEpochDay());
+                out.writeLong(l.getReturnDate().toEpochDay());
+                bloomAdd(memberBloom, l.getMemberId());
+                bloomAdd(loanBloom, l.getLoanId());
+            }
+            long footerOffset = counter.count;
+            out.writeInt(count);
+            out.writeInt(sparseKeys.size());
+            for (int i = 0; i < sparseKeys.size(); i++) {
+                out.writeUTF(sparseKeys.get(i));
+                out.writeLong(sparseOffsets.get(i));
+            }
+            out.writeInt(memberBloom.length);
+            for (long w : memberBloom) out.writeLong(w);
+            out.writeInt(loanBloom.length);
+            for (long w : loanBloom) out.writeLong(w);
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Segment.open(target);
+    }
+
+    // the archived loan with this id, or null
+    public Loan find(String loanId) throws IOException {
+        for (;;) {
+            List<Segment> segs = segments;
+            try {
+                for (int i = segs.size() - 1; i >= 0; i--) {
+                    Loan l = find(segs.get(i), loanId);
+                    if (l != null) return l;
+                }
+                return null;
+            } catch (Retired e) {
+                // merged away while we were reading; the new list holds the same loans
+            }
+        }
+    }
+
+    // true if the newest segment holds this loan; after a crash between writing a segment and the
+    // snapshot that drops those loans from the hot map, only that segment (or a merge that took it
+    // in) can overlap the snapshot
+    boolean inNewestSegment(String loanId) throws IOException {
+        for (;;) {
+            List<Segment> segs = segments;
+            try {
+                return !segs.isEmpty() && find(segs.get(segs.size() - 1), loanId) != null;
+            } catch (Retired e) {
+                // merged away; retry against the merge
+            }
+        }
+    }
+
+    // every archived loan of a member, oldest segment first
+    public List<Loan> findByMember(String memberId) throws IOException {
+        for (;;) {
+            List<Segment> segs = segments;
+            List<Loan> out = new ArrayList<>();
+            try {
+                for (Segment s : segs) {
+                    if (!bloomMightContain(s.memberBloom, memberId)) continue;
+                    FileChannel ch = acquire(s);
+                    try {
+                        s.scanMember(ch, memberId, out);
+                    } finally {
+                        release(s);
+                    }
+                }
+                return out;
+            } catch (Retired e) {
+                // merged away; start over so no loan is listed twice
+            }
+        }
+    }
+
+    private Loan find(Segment s, String loanId) throws IOException {
+        if (s.loanBloom != null && !bloomMightContain(s.loanBloom, loanId)) return null;
+        if (!s.mayHold(loanId)) return null;
+        FileChannel ch = acquire(s);
+        try {
+            return s.find(ch, loanId);
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (channels) {
+            closed = true;
+            for (FileChannel ch : channels.values()) ch.close();
+            channels.clear();
+        }
+    }
+
+    // ---------- channel cache: at most OPEN_CHANNELS idle channels stay open ----------
+    private static class Retired extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // the segment's open channel, pinned so eviction leaves it open until release
+    private FileChannel acquire(Segment s) throws IOException {
+        synchronized (channels) {
+            if (closed) throw new IOException("Loan archive closed");
+            if (s.retired) throw new Retired();
+            FileChannel ch = channels.get(s);
+            if (ch == null) {
+                ch = FileChannel.open(s.file.toPath(), StandardOpenOption.READ);
+                channels.put(s, ch);
+            }
+            s.pins++;
+            evictIdle();
+            return ch;
+        }
+    }
+
+    private void release(Segment s) throws IOException {
+        synchronized (channels) {
+            s.pins--;
+            if (s.retired && s.pins == 0) {
+                FileChannel ch = channels.remove(s);
+                if (ch != null) ch.close();
+            }
+            evictIdle();
+        }
+    }
+
+    // the file may be deleted now; readers still inside it keep their channel until they release
+    private void retire(Segment s) throws IOException {
+        synchronized (channels) {
+            s.retired = true;
+            if (s.pins == 0) {
+                FileChannel ch = channels.remove(s);
+                if (ch != null) ch.close();
+            }
+        }
+    }
+
+    private void evictIdle() throws IOException {
+        int excess = channels.size() - OPEN_CHANNELS;
+        for (Iterator<Map.Entry<Segment, FileChannel>> it = channels.entrySet().iterator(); excess > 0 && it.hasNext(); ) {
+            Map.Entry<Segment, FileChannel> e = it.next(); // least recently used first
+            if (e.getKey().pins > 0) continue;
+            it.remove();
+            e.getValue().close();
+            excess--;
+        }
+    }
+
+    // ---------- k-way merge of segments, newest copy wins when an id repeats ----------
+    private static class MergeCursor implements Iterator<Loan>, Closeable {
+        private final List<DataInputStream> ins = new ArrayList<>();
+        private final int[] remaining;
+        private final PriorityQueue<Object[]> heads; // {Loan, Integer input}: by id, newer input first
+        private Loan next;
+
+        MergeCursor(List<Segment> inputs) throws IOException {
+            remaining = new int[inputs.size()];
+            heads = new PriorityQueue<>(Math.max(1, inputs.size()), (a, b) -> {
+                int c = ((Loan) a[0]).getLoanId().compareTo(((Loan) b[0]).getLoanId());
+                return c != 0 ? c : Integer.compare((Integer) b[1], (Integer) a[1]);
+            });
+            try {
+                for (int i = 0; i < inputs.size(); i++) {
+                    Segment s = inputs.get(i);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(s.file), 1 << 16));
+                    ins.add(in);
+                    in.readFully(new byte[(int) s.recordsStart]); // header
+                    remaining[i] = s.count;
+                    advance(i);
+                }
+                next = pull();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void advance(int i) throws IOException {
+            if (remaining[i]-- > 0) heads.add(new Object[]{Segment.readLoan(ins.get(i)), i});
+        }
+
+        private Loan pull() throws IOException {
+            Object[] head = heads.poll();
+            if (head == null) return null;
+            Loan l = (Loan) head[0];
+            advance((Integer) head[1]);
+            while (!heads.isEmpty() && ((Loan) heads.peek()[0]).getLoanId().equals(l.getLoanId())) {
+                advance((Integer) heads.poll()[1]); // an older copy, from a save that crashed before its snapshot
+            }
+            return l;
+        }
+
+        @Override public boolean hasNext() { return next != null; }
+
+        @Override
+        public Loan next() {
+            if (next == null) throw new NoSuchElementException();
+            Loan l = next;
+            try {
+                next = pull();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return l;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream in : ins) in.close();
+        }
+    }
+
+    // ---------- bloom filters over member ids and loan ids ----------
+    private static void bloomAdd(long[] bloom, String key) {
+        long bits = (long) bloom.length * 64;
+        int h1 = key.hashCode(), h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static boolean bloomMightContain(long[] bloom, String key) {
+        long bits = (long) bloom.length * 64;
+        int h1 = key.hashCode(), h2 = mix(h1);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return (h ^ (h >>> 16)) | 1; // odd, so successive probes differ
+    }
+
+    private static class CountingOut extends FilterOutputStream {
+        long count;
+        CountingOut(OutputStream out) { super(out); }
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+    }
+
+    // ---------- one immutable segment file ----------
+    private static class Segment {
+        final File file;
+        final int generation;
+        final int firstGeneration; // oldest generation merged into this one
+        final int count;
+        final String[] sparseKeys;
+        final long[] sparseOffsets;
+        final long recordsStart, recordsEnd;
+        final long[] memberBloom;
+        final long[] loanBloom; // null in version 1 segments
+        int pins;                // readers inside the channel; guarded by the channel cache
+        boolean retired;         // merged away, no new reads; guarded by the channel cache
+
+        private Segment(File file, int generation, int firstGeneration, int count, String[] sparseKeys, long[] sparseOffsets,
+                        long recordsStart, long recordsEnd, long[] memberBloom, long[] loanBloom) {
+            this.file = file;
+            this.generation = generation;
+            this.firstGeneration = firstGeneration;
+            this.count = count;
+            this.sparseKeys = sparseKeys;
+            this.sparseOffsets = sparseOffsets;
+            this.recordsStart = recordsStart;
+            this.recordsEnd = recordsEnd;
+            this.memberBloom = memberBloom;
+            this.loanBloom = loanBloom;
+        }
+
+        // reads the header and footer; the channel is closed again, later reads go through the cache
+        static Segment open(File f) throws IOException {
+            String name = f.getName();
+            int generation = Integer.parseInt(name.substring("segment-".length(), name.indexOf('.')));
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                long size = ch.size();
+                ByteBuffer header = ByteBuffer.allocate(12);
+                readFully(ch, header, 0);
+                int version = header.getInt(4);
+                if (header.getInt(0) != MAGIC || version < 1 || version > VERSION) throw new IOException("Corrupt archive segment " + f);
+                int firstGeneration = version >= 2 ? header.getInt(8) : generation;
+                long recordsStart = version >= 2 ? 12 : 8;
+                ByteBuffer trailer = ByteBuffer.allocate(12);
+                readFully(ch, trailer, size - 12);
+                long footerOffset = trailer.getLong(0);
+                if (trailer.getInt(8) != MAGIC) throw new IOException("Corrupt archive segment " + f);
+                ByteBuffer footer = ByteBuffer.allocate((int) (size - 12 - footerOffset));
+                readFully(ch, footer, footerOffset);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+                int count = in.readInt();
+                String[] keys = new String[in.readInt()];
+                long[] offsets = new long[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = in.readUTF();
+                    offsets[i] = in.readLong();
+                }
+                long[] memberBloom = new long[in.readInt()];
+                for (int i = 0; i < memberBloom.length; i++) memberBloom[i] = in.readLong();
+                long[] loanBloom = null;
+                if (version >= 2) {
+                    loanBloom = new long[in.readInt()];
+                    for (int i = 0; i < loanBloom.length; i++) loanBloom[i] = in.readLong();
+                }
+                return new Segment(f, generation, firstGeneration, count, keys, offsets, recordsStart, footerOffset, memberBloom, loanBloom);
+            }
+        }
+
+        // false if loanId sorts before this segment's first key
+        boolean mayHold(String loanId) {
+            return sparseKeys.length > 0 && loanId.compareTo(sparseKeys[0]) >= 0;
+        }
+
+        Loan find(FileChannel channel, String loanId) throws IOException {
+            int i = Arrays.binarySearch(sparseKeys, loanId);
+            if (i < 0) i = -i - 2; // block whose first key precedes loanId
+            if (i < 0) return null;
+            long start = sparseOffsets[i];
+            long end = i + 1 < sparseOffsets.length ? sparseOffsets[i + 1] : recordsEnd;
+            ByteBuffer block = ByteBuffer.allocate((int) (end - start));
+            readFully(channel, block, start);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(block.array()));
+            while (in.available() > 0) {
+                Loan l = readLoan(in);
+                int c = l.getLoanId().compareTo(loanId);
+                if (c == 0) return l;
+                if (c > 0) break;
+            }
+            return null;
+        }
+
+        void scanMember(FileChannel channel, String memberId, List<Loan> out) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new ChannelInput(channel, recordsStart), 1 << 16));
+            for (int i = 0; i < count; i++) {
+                Loan l = readLoan(in);
+                if (l.getMemberId().equals(memberId)) out.add(l);
+            }
+        }
+
+        static Loan readLoan(DataInputStream in) throws IOException {
+            Loan l = new Loan(in.readUTF(), in.readUTF(), in.readUTF(), LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong()));
+            l.markReturned(LocalDate.ofEpochDay(in.readLong()));
+            return l;
+        }
+
+        // positional reads, so readers sharing the cached channel do not move each other's position
+        private static class ChannelInput extends InputStream {
+            private final FileChannel channel;
+            private long position;
+
+            ChannelInput(FileChannel channel, long position) {
+                this.channel = channel;
+                this.position = position;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+                if (n > 0) position += n;
+                return n;
+            }
+        }
+
+        private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, position + buf.position());
+                if (n < 0) throw new EOFException();
+            }
+            buf.flip();
+        }
+    }
+}
@@ -5,40 +5,61 @@
   - Dashboard overview
   - Student Information System (CRUD + profile)
   - Teacher management (CRUD)
-  - Attendance marking
-  - Gradebook (basic)
+  - Attendance marking (by date, packed per day; see Attendance store)
+  - Gradebook (running averages, class rankings)
   - Fees / Payments (basic)
 
  Notes:
-  - This is an in-memory demo using ArrayList storage. Replace with a DB for production.
+  - This is an in-memory demo using id-keyed repositories (see Repositories). Replace with a DB for production.
   - Keep Java 11+ compatibility.
   - Compile: javac SchoolManagementSystem.java
-  - Run:     java SchoolManagementSystem
+  - Run:     java SchoolManagementSystem [sampleStudents]
+    (sampleStudents: also generate that many students, with records, in the background)
+  - Data work (choice lists, counts, bulk loads) runs on SwingWorkers; stores are changed on the
+    event thread and report to a throttled ChangeBus that the dashboard listens to.
 */
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class SchoolManagementSystem {
     // In-memory storage
-    static java.util.List<Student> students = new ArrayList<>();
-    static java.util.List<Teacher> teachers = new ArrayList<>();
-    static java.util.List<AttendanceRecord> attendance = new ArrayList<>();
-    static java.util.List<GradeRecord> grades = new ArrayList<>();
-    static java.util.List<Payment> payments = new ArrayList<>();
+    static Repository<Student> students = new Repository<>(s -> s.id);
+    static Repository<Teacher> teachers = new Repository<>(t -> t.id);
+    static AttendanceStore attendance = new AttendanceStore();
+    static Gradebook grades = new Gradebook();
+    static StudentRecords<Payment> payments = new StudentRecords<>(p -> p.studentId);
+
+    static final ChangeBus changes = new ChangeBus();
 
     // Main frame
     private JFrame frame;
     private JLabel lblStudentCount, lblTeacherCount, lblAttendanceCount, lblOutstandingFees;
+    private JLabel lblStatus;
 
     public static void main(String[] args) {
         // seed sample data
         seedDemoData();
-        SwingUtilities.invokeLater(() -> new SchoolManagementSystem().createAndShowGUI());
+        int sample = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        SwingUtilities.invokeLater(() -> {
+            SchoolManagementSystem app = new SchoolManagementSystem();
+            app.createAndShowGUI();
+            if (sample > 0) new SampleDataLoader(sample, app.lblStatus).execute();
+        });
     }
 
     static void seedDemoData() {
@@ -61,6 +82,8 @@ public class SchoolManagementSystem {
         JLabel title = new JLabel("SCHOOL MANAGEMENT SYSTEM", SwingConstants.LEFT);
         title.setFont(new Font("Segoe UI", Font.BOLD, 20));
         header.add(title, BorderLayout.WEST);
+        lblStatus = new JLabel(" ");
+        header.add(lblStatus, BorderLayout.EAST);
 
         frame.add(header, BorderLayout.NORTH);
 
@@ -77,6 +100,7 @@ public class SchoolManagementSystem {
         frame.add(tabs, BorderLayout.CENTER);
 
         frame.setVisible(true);
+        changes.subscribe(this::refreshDashboard);
         refreshDashboard();
     }
 
@@ -107,7 +131,7 @@ public class SchoolManagementSystem {
     }
 
     private JLabel createStatCard(String title, String value) {
-        JLabel l = new JLabel("<html><center>" + title + "<br/><span style='font-size:18px;font-weight:bold;'>" + value + "</span></center></html>");
+        JLabel l = new JLabel(statHtml(title, value));
         l.setHorizontalAlignment(SwingConstants.CENTER);
         l.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY));
         l.setFont(new Font("Segoe UI", Font.PLAIN, 14));
@@ -120,25 +144,60 @@ public class SchoolManagementSystem {
         return p;
     }
 
+    private static String statHtml(String title, Object value) {
+        return "<html><center>" + title + "<br/><span style='font-size:18px;font-weight:bold;'>" + value + "</span></center></html>";
+    }
+
+    // counted off the event thread; the change bus calls this at most once per ChangeBus.THROTTLE_MS
     private void refreshDashboard() {
-        lblStudentCount.setText("<html><center>Students<br/><span style='font-size:18px;font-weight:bold;'>" + students.size() + "</span></center></html>");
-        lblTeacherCount.setText("<html><center>Teachers<br/><span style='font-size:18px;font-weight:bold;'>" + teachers.size() + "</span></center></html>");
-        lblAttendanceCount.setText("<html><center>Attendance Records<br/><span style='font-size:18px;font-weight:bold;'>" + attendance.size() + "</span></center></html>");
-        lblOutstandingFees.setText("<html><center>Payments<br/><span style='font-size:18px;font-weight:bold;'>" + payments.size() + "</span></center></html>");
+        new SwingWorker<int[], Void>() {
+            @Override protected int[] doInBackground() { return new int[]{students.size(), teachers.size(), attendance.size(), payments.size()}; }
+
+            @Override protected void done() {
+                int[] n;
+                try { n = get(); } catch (InterruptedException | ExecutionException ex) { return; }
+                lblStudentCount.setText(statHtml("Students", n[0]));
+                lblTeacherCount.setText(statHtml("Teachers", n[1]));
+                lblAttendanceCount.setText(statHtml("Attendance Records", n[2]));
+                lblOutstandingFees.setText(statHtml("Payments", n[3]));
+            }
+        }.execute();
+    }
+
+    // builds the student choice list off the event thread, then asks, then hands on the chosen id
+    static void pickStudent(Component parent, String prompt, String title, String noneMsg, Consumer<String> then) {
+        new SwingWorker<String[], Void>() {
+            @Override protected String[] doInBackground() {
+                return students.snapshot().stream().map(s->s.id + " - " + s.firstName + " " + s.lastName).toArray(String[]::new);
+            }
+
+            @Override protected void done() {
+                String[] ids;
+                try { ids = get(); } catch (InterruptedException | ExecutionException ex) { JOptionPane.showMessageDialog(parent, "Error: " + ex.getMessage()); return; }
+                if (ids.length==0) { JOptionPane.showMessageDialog(parent, noneMsg); return; }
+                String sel = (String)JOptionPane.showInputDialog(parent, prompt, title, JOptionPane.PLAIN_MESSAGE, null, ids, ids[0]);
+                if (sel==null) return;
+                then.accept(sel.split(" - ")[0]);
+            }
+        }.execute();
+    }
+
+    // display name for a record's student; records outlive a deleted student
+    static String studentName(String id) {
+        Student s = students.find(id);
+        return s==null?"(deleted)":(s.firstName + " " + s.lastName);
     }
 
     // ----------------------- Panels -----------------------
     class StudentPanel extends JPanel {
-        DefaultTableModel model;
+        StoreTableModel<Student> model;
         JTable table;
 
         StudentPanel() {
             setLayout(new BorderLayout());
-            model = new DefaultTableModel(new Object[]{"ID", "First Name", "Last Name", "Phone", "Age", "Level", "Guardian"}, 0) {
-                public boolean isCellEditable(int row, int column) { return false; }
-            };
+            model = new StoreTableModel<>(students, new String[]{"ID", "First Name", "Last Name", "Phone", "Age", "Level", "Guardian"},
+                    s -> s.id, s -> s.firstName, s -> s.lastName, s -> s.phone, s -> s.age, s -> s.level, s -> s.guardian);
             table = new JTable(model);
-            refreshTable();
             add(new JScrollPane(table), BorderLayout.CENTER);
 
             JPanel controls = new JPanel();
@@ -151,37 +210,26 @@ public class SchoolManagementSystem {
             btnEdit.addActionListener(e -> {
                 int r = table.getSelectedRow();
                 if (r == -1) { showMsg("Select a student first."); return; }
-                String id = (String)model.getValueAt(r, 0);
-                openStudentDialog(findStudentById(id));
+                openStudentDialog(model.rowAt(r));
             });
             btnDelete.addActionListener(e -> {
                 int r = table.getSelectedRow();
                 if (r == -1) { showMsg("Select a student first."); return; }
-                String id = (String)model.getValueAt(r, 0);
+                String id = model.rowAt(r).id;
                 int ok = JOptionPane.showConfirmDialog(this, "Delete student " + id + "?", "Confirm", JOptionPane.YES_NO_OPTION);
                 if (ok == JOptionPane.YES_OPTION) {
-                    students.removeIf(s -> s.id.equals(id));
-                    refreshTable(); refreshDashboard();
+                    students.remove(id); table.clearSelection();
                 }
             });
             btnView.addActionListener(e -> {
                 int r = table.getSelectedRow(); if (r == -1) { showMsg("Select a student first."); return; }
-                String id = (String)model.getValueAt(r, 0);
-                Student s = findStudentById(id);
-                showProfileDialog(s);
+                showProfileDialog(model.rowAt(r));
             });
 
             controls.add(btnAdd); controls.add(btnEdit); controls.add(btnDelete); controls.add(btnView);
             add(controls, BorderLayout.SOUTH);
         }
 
-        void refreshTable() {
-            model.setRowCount(0);
-            for (Student s : students) model.addRow(new Object[]{s.id, s.firstName, s.lastName, s.phone, s.age, s.level, s.guardian});
-        }
-
-        Student findStudentById(String id) { return students.stream().filter(s -> s.id.equals(id)).findFirst().orElse(null); }
-
         void openStudentDialog(Student s) {
             boolean isNew = (s == null);
             JTextField tfId = new JTextField(isNew ? generateStudentId() : s.id);
@@ -206,7 +254,7 @@ public class SchoolManagementSystem {
                 try {
                     if (isNew) {
                         Student ns = new Student(tfId.getText().trim(), tfFirst.getText().trim(), tfLast.getText().trim(), tfPhone.getText().trim(), Integer.parseInt(tfAge.getText().trim()), tfLevel.getText().trim(), tfGuardian.getText().trim());
-                        students.add(ns);
+                        if (!students.add(ns)) { showMsg("Student " + ns.id + " already exists."); return; }
                     } else {
                         s.firstName = tfFirst.getText().trim();
                         s.lastName = tfLast.getText().trim();
@@ -214,8 +262,8 @@ public class SchoolManagementSystem {
                         s.age = Integer.parseInt(tfAge.getText().trim());
                         s.level = tfLevel.getText().trim();
                         s.guardian = tfGuardian.getText().trim();
+                        students.changed(s.id);
                     }
-                    refreshTable(); refreshDashboard();
                 } catch (Exception ex) { showMsg("Error saving: " + ex.getMessage()); }
             }
         }
@@ -223,28 +271,30 @@ public class SchoolManagementSystem {
         void showProfileDialog(Student s) {
             if (s == null) { showMsg("Student not found."); return; }
             JTextArea ta = new JTextArea(); ta.setEditable(false);
-            ta.setText("ID: " + s.id + "\nName: " + s.firstName + " " + s.lastName + "\nPhone: " + s.phone + "\nAge: " + s.age + "\nLevel: " + s.level + "\nGuardian: " + s.guardian);
+            double paid = payments.forStudent(s.id).stream().mapToDouble(p -> p.amount).sum();
+            ta.setText("ID: " + s.id + "\nName: " + s.firstName + " " + s.lastName + "\nPhone: " + s.phone + "\nAge: " + s.age + "\nLevel: " + s.level + "\nGuardian: " + s.guardian
+                    + "\nAttendance records: " + attendance.forStudent(s.id, LocalDate.MIN, LocalDate.MAX).size() + "\nGrades: " + grades.statsFor(s.id).format() + "\nPaid: " + paid);
             JOptionPane.showMessageDialog(this, new JScrollPane(ta), "Profile: " + s.id, JOptionPane.INFORMATION_MESSAGE);
         }
 
         String generateStudentId() {
-            return String.format("S%03d", students.size() + 1 + new Random().nextInt(900));
+            String id;
+            do { id = String.format("S%03d", students.size() + 1 + new Random().nextInt(900)); } while (students.find(id) != null);
+            return id;
         }
 
         void showMsg(String msg) { JOptionPane.showMessageDialog(this, msg); }
     }
 
     class TeacherPanel extends JPanel {
-        DefaultTableModel model;
+        StoreTableModel<Teacher> model;
         JTable table;
 
         TeacherPanel() {
             setLayout(new BorderLayout());
-            model = new DefaultTableModel(new Object[]{"ID","First","Last","Subject","Phone"}, 0) {
-                public boolean isCellEditable(int row, int col) { return false; }
-            };
+            model = new StoreTableModel<>(teachers, new String[]{"ID","First","Last","Subject","Phone"},
+                    t -> t.id, t -> t.firstName, t -> t.lastName, t -> t.subject, t -> t.phone);
             table = new JTable(model);
-            refreshTable();
             add(new JScrollPane(table), BorderLayout.CENTER);
 
             JPanel c = new JPanel();
@@ -254,24 +304,16 @@ public class SchoolManagementSystem {
             add.addActionListener(e -> openDialog(null));
             edit.addActionListener(e -> {
                 int r = table.getSelectedRow(); if (r==-1) { showMsg("Select a teacher."); return; }
-                String id = (String)model.getValueAt(r,0); openDialog(findById(id));
+                openDialog(model.rowAt(r));
             });
             del.addActionListener(e -> {
                 int r = table.getSelectedRow(); if (r==-1) { showMsg("Select a teacher."); return; }
-                String id = (String)model.getValueAt(r,0);
-                teachers.removeIf(t->t.id.equals(id)); refreshTable(); refreshDashboard();
+                teachers.remove(model.rowAt(r).id); table.clearSelection();
             });
             c.add(add); c.add(edit); c.add(del);
             add(c, BorderLayout.SOUTH);
         }
 
-        void refreshTable() {
-            model.setRowCount(0);
-            for (Teacher t : teachers) model.addRow(new Object[]{t.id, t.firstName, t.lastName, t.subject, t.phone});
-        }
-
-        Teacher findById(String id) { return teachers.stream().filter(t->t.id.equals(id)).findFirst().orElse(null); }
-
         void openDialog(Teacher t) {
             boolean isNew = (t==null);
             JTextField tfId = new JTextField(isNew?generateTeacherId():t.id);
@@ -288,118 +330,182 @@ public class SchoolManagementSystem {
             int res = JOptionPane.showConfirmDialog(this, p, isNew?"Add Teacher":"Edit Teacher", JOptionPane.OK_CANCEL_OPTION);
             if (res==JOptionPane.OK_OPTION) {
                 if (isNew) {
-                    teachers.add(new Teacher(tfId.getText().trim(), tfFirst.getText().trim(), tfLast.getText().trim(), tfSub.getText().trim(), tfPhone.getText().trim()));
+                    Teacher nt = new Teacher(tfId.getText().trim(), tfFirst.getText().trim(), tfLast.getText().trim(), tfSub.getText().trim(), tfPhone.getText().trim());
+                    if (!teachers.add(nt)) { showMsg("Teacher " + nt.id + " already exists."); return; }
                 } else {
                     t.firstName = tfFirst.getText().trim(); t.lastName = tfLast.getText().trim(); t.subject = tfSub.getText().trim(); t.phone = tfPhone.getText().trim();
+                    teachers.changed(t.id);
                 }
-                refreshTable(); refreshDashboard();
             }
         }
 
-        String generateTeacherId() { return String.format("T%03d", teachers.size()+1 + new Random().nextInt(300)); }
+        String generateTeacherId() {
+            String id;
+            do { id = String.format("T%03d", teachers.size()+1 + new Random().nextInt(300)); } while (teachers.find(id) != null);
+            return id;
+        }
         void showMsg(String m) { JOptionPane.showMessageDialog(this, m); }
     }
 
     class AttendancePanel extends JPanel {
-        DefaultTableModel model;
+        AttendanceDayModel model;
         JTable table;
+        JLabel lblDay = new JLabel();
 
         AttendancePanel() {
             setLayout(new BorderLayout());
-            model = new DefaultTableModel(new Object[]{"Student ID","Name","Date","Status"}, 0) {
-                public boolean isCellEditable(int r,int c){return false;}
-            };
+            model = new AttendanceDayModel(attendance, LocalDate.now());
+            students.addListener((type, first, last) -> model.columnChanged(1));
+            model.addTableModelListener(e -> showCounts());
             table = new JTable(model);
-            refreshTable();
+            lblDay.setBorder(BorderFactory.createEmptyBorder(4, 6, 4, 6));
+            add(lblDay, BorderLayout.NORTH);
             add(new JScrollPane(table), BorderLayout.CENTER);
+            showCounts();
 
             JPanel c = new JPanel();
             JButton mark = new JButton("Mark Attendance");
             JButton view = new JButton("View By Date");
+            JButton history = new JButton("Student History");
             mark.addActionListener(e -> markAttendance());
-            view.addActionListener(e -> refreshTable());
-            c.add(mark); c.add(view);
+            view.addActionListener(e -> viewByDate());
+            history.addActionListener(e -> pickStudent(this, "Select student:", "Student History", "No students available.", this::showHistory));
+            c.add(mark); c.add(view); c.add(history);
             add(c, BorderLayout.SOUTH);
         }
 
+        void showCounts() {
+            int[] n = attendance.countsFor(model.date());
+            StringBuilder sb = new StringBuilder(model.date().toString()).append(":");
+            for (int i = 0; i < n.length; i++) sb.append("  ").append(AttendanceStore.STATUSES[i]).append(' ').append(n[i]);
+            lblDay.setText(sb.toString());
+        }
+
+        void viewByDate() {
+            String in = JOptionPane.showInputDialog(this, "Date (yyyy-MM-dd):", model.date().toString());
+            if (in==null) return;
+            LocalDate d = parseDate(in);
+            if (d!=null) model.show(d);
+        }
+
+        // marks go on the day being viewed, today unless View By Date chose another
         void markAttendance() {
-            // choose student
-            String[] ids = students.stream().map(s->s.id + " - " + s.firstName + " " + s.lastName).toArray(String[]::new);
-            if (ids.length==0) { JOptionPane.showMessageDialog(this, "No students available."); return; }
-            String sel = (String)JOptionPane.showInputDialog(this, "Select student:", "Mark", JOptionPane.PLAIN_MESSAGE, null, ids, ids[0]);
-            if (sel==null) return;
-            String sid = sel.split(" - ")[0];
-            String[] opts = new String[]{"Present","Absent","Late","Excused"};
-            String status = (String)JOptionPane.showInputDialog(this, "Status:", "Mark", JOptionPane.PLAIN_MESSAGE, null, opts, opts[0]);
+            pickStudent(this, "Select student:", "Mark", "No students available.", this::markAttendance);
+        }
+
+        void markAttendance(String sid) {
+            String[] opts = AttendanceStore.STATUSES;
+            String status = (String)JOptionPane.showInputDialog(this, "Status for " + model.date() + ":", "Mark", JOptionPane.PLAIN_MESSAGE, null, opts, opts[0]);
             if (status==null) return;
-            attendance.add(new AttendanceRecord(sid, LocalDate.now(), status));
-            refreshTable(); refreshDashboard();
+            attendance.mark(sid, model.date(), status);
         }
 
-        void refreshTable() {
-            model.setRowCount(0);
-            for (AttendanceRecord a : attendance) {
-                Student s = students.stream().filter(x->x.id.equals(a.studentId)).findFirst().orElse(null);
-                String name = s==null?"(deleted)":(s.firstName + " " + s.lastName);
-                model.addRow(new Object[]{a.studentId, name, a.date.toString(), a.status});
-            }
+        void showHistory(String sid) {
+            JTextField tfFrom = new JTextField(LocalDate.now().minusDays(30).toString());
+            JTextField tfTo = new JTextField(LocalDate.now().toString());
+            JPanel p = new JPanel(new GridLayout(0,2,6,6));
+            p.add(new JLabel("From")); p.add(tfFrom);
+            p.add(new JLabel("To")); p.add(tfTo);
+            if (JOptionPane.showConfirmDialog(this, p, "Attendance of " + sid, JOptionPane.OK_CANCEL_OPTION)!=JOptionPane.OK_OPTION) return;
+            LocalDate from = parseDate(tfFrom.getText()), to = parseDate(tfTo.getText());
+            if (from==null || to==null) return;
+            List<AttendanceRecord> marks = attendance.forStudent(sid, from, to);
+            int[] n = new int[AttendanceStore.STATUSES.length];
+            StringBuilder sb = new StringBuilder();
+            for (AttendanceRecord a : marks) { sb.append(a.date).append("  ").append(a.status).append('\n'); n[AttendanceStore.code(a.status)]++; }
+            StringBuilder head = new StringBuilder(studentName(sid) + ", " + from + " to " + to + ":\n");
+            for (int i = 0; i < n.length; i++) head.append(AttendanceStore.STATUSES[i]).append(' ').append(n[i]).append(i < n.length-1 ? ", " : "\n\n");
+            JTextArea ta = new JTextArea(head.append(sb).toString(), 20, 40); ta.setEditable(false);
+            JOptionPane.showMessageDialog(this, new JScrollPane(ta), "Attendance of " + sid, JOptionPane.INFORMATION_MESSAGE);
+        }
+
+        LocalDate parseDate(String s) {
+            try { return LocalDate.parse(s.trim()); }
+            catch (DateTimeParseException ex) { JOptionPane.showMessageDialog(this, "Not a date: " + s); return null; }
         }
     }
 
     class GradesPanel extends JPanel {
-        DefaultTableModel model;
+        StoreTableModel<GradeRecord> model;
         JTable table;
 
         GradesPanel() {
             setLayout(new BorderLayout());
-            model = new DefaultTableModel(new Object[]{"Student ID","Name","Subject","Grade"},0){ public boolean isCellEditable(int r,int c){return false;} };
+            model = new StoreTableModel<>(grades, new String[]{"Student ID","Name","Subject","Grade"},
+                    g -> g.studentId, g -> studentName(g.studentId), g -> g.subject, g -> g.grade);
+            students.addListener((type, first, last) -> model.columnChanged(1));
             table = new JTable(model);
-            refreshTable();
             add(new JScrollPane(table), BorderLayout.CENTER);
 
             JPanel c = new JPanel();
             JButton add = new JButton("Enter Grade");
             JButton calc = new JButton("Auto Average");
             add.addActionListener(e -> enterGrade());
-            calc.addActionListener(e -> JOptionPane.showMessageDialog(this, "Average calculation is demo-only."));
+            calc.addActionListener(e -> showAverages());
             c.add(add); c.add(calc);
             add(c, BorderLayout.SOUTH);
         }
 
         void enterGrade() {
-            String[] ids = students.stream().map(s->s.id + " - " + s.firstName + " " + s.lastName).toArray(String[]::new);
-            if (ids.length==0) { JOptionPane.showMessageDialog(this, "No students."); return; }
-            String sel = (String)JOptionPane.showInputDialog(this, "Student:", "Grade", JOptionPane.PLAIN_MESSAGE, null, ids, ids[0]);
-            if (sel==null) return;
-            String sid = sel.split(" - ")[0];
+            pickStudent(this, "Student:", "Grade", "No students.", this::enterGrade);
+        }
+
+        void enterGrade(String sid) {
             String subj = JOptionPane.showInputDialog(this, "Subject:"); if (subj==null) return;
             String gstr = JOptionPane.showInputDialog(this, "Grade (numeric):"); if (gstr==null) return;
             try {
                 double g = Double.parseDouble(gstr);
-                grades.add(new GradeRecord(sid, subj, g));
-                refreshTable();
+                if (!Gradebook.isValidGrade(g)) {
+                    JOptionPane.showMessageDialog(this, String.format("Grade must be a number from %.0f to %.0f.", Gradebook.MIN_GRADE, Gradebook.MAX_GRADE));
+                    return;
+                }
+                grades.add(new GradeRecord(sid, subj.trim(), g));
             } catch (Exception ex) { JOptionPane.showMessageDialog(this, "Invalid grade."); }
         }
 
-        void refreshTable() {
-            model.setRowCount(0);
-            for (GradeRecord gr : grades) {
-                Student s = students.stream().filter(x->x.id.equals(gr.studentId)).findFirst().orElse(null);
-                String name = s==null?"(deleted)":(s.firstName + " " + s.lastName);
-                model.addRow(new Object[]{gr.studentId, name, gr.subject, gr.grade});
-            }
+        // class ranking overall or in one subject, worked out off the event thread from the running aggregates
+        void showAverages() {
+            List<String> subjects = grades.subjects();
+            if (subjects.isEmpty()) { JOptionPane.showMessageDialog(this, "No grades yet."); return; }
+            subjects.add(0, "All subjects");
+            String sel = (String)JOptionPane.showInputDialog(this, "Rank by:", "Auto Average", JOptionPane.PLAIN_MESSAGE, null, subjects.toArray(), subjects.get(0));
+            if (sel==null) return;
+            String subject = sel.equals("All subjects") ? null : sel;
+            new SwingWorker<List<Ranking>, Void>() {
+                @Override protected List<Ranking> doInBackground() { return grades.rank(subject); }
+
+                @Override protected void done() {
+                    List<Ranking> ranks;
+                    try { ranks = get(); } catch (InterruptedException | ExecutionException ex) { JOptionPane.showMessageDialog(GradesPanel.this, "Error: " + ex.getMessage()); return; }
+                    Object[][] rows = new Object[ranks.size()][];
+                    for (int i = 0; i < rows.length; i++) {
+                        Ranking r = ranks.get(i); GradeStats st = r.stats;
+                        rows[i] = new Object[]{r.rank, r.studentId, studentName(r.studentId), st.count(), round(st.mean()), st.min(), st.max(), round(st.stdDev()), round(r.percentile)};
+                    }
+                    JTable t = new JTable(rows, new String[]{"Rank","Student ID","Name","Grades","Average","Min","Max","Std Dev","Percentile"});
+                    t.setDefaultEditor(Object.class, null);
+                    JPanel p = new JPanel(new BorderLayout(0, 6));
+                    p.add(new JLabel((subject==null ? "All subjects" : subject) + ": " + grades.statsForSubject(subject).format()), BorderLayout.NORTH);
+                    JScrollPane sp = new JScrollPane(t); sp.setPreferredSize(new Dimension(760, 400));
+                    p.add(sp, BorderLayout.CENTER);
+                    JOptionPane.showMessageDialog(GradesPanel.this, p, "Auto Average", JOptionPane.INFORMATION_MESSAGE);
+                }
+            }.execute();
         }
+
+        double round(double d) { return Math.round(d * 100) / 100.0; }
     }
 
     class FeesPanel extends JPanel {
-        DefaultTableModel model;
+        StoreTableModel<Payment> model;
         JTable table;
 
         FeesPanel() {
             setLayout(new BorderLayout());
-            model = new DefaultTableModel(new Object[]{"Student ID","Name","Amount","Date"},0) { public boolean isCellEditable(int r,int c){return false;} };
+            model = new StoreTableModel<>(payments, new String[]{"Student ID","Name","Amount","Date"},
+                    p -> p.studentId, p -> studentName(p.studentId), p -> p.amount, p -> p.date.toString());
+            students.addListener((type, first, last) -> model.columnChanged(1));
             table = new JTable(model);
-            refreshTable();
             add(new JScrollPane(table), BorderLayout.CENTER);
 
             JPanel c = new JPanel();
@@ -412,16 +518,14 @@ public class SchoolManagementSystem {
         }
 
         void recordPayment() {
-            String[] ids = students.stream().map(s->s.id + " - " + s.firstName + " " + s.lastName).toArray(String[]::new);
-            if (ids.length==0) { JOptionPane.showMessageDialog(this, "No students."); return; }
-            String sel = (String)JOptionPane.showInputDialog(this, "Student:", "Payment", JOptionPane.PLAIN_MESSAGE, null, ids, ids[0]);
-            if (sel==null) return;
-            String sid = sel.split(" - ")[0];
+            pickStudent(this, "Student:", "Payment", "No students.", this::recordPayment);
+        }
+
+        void recordPayment(String sid) {
             String amt = JOptionPane.showInputDialog(this, "Amount:"); if (amt==null) return;
             try {
                 double a = Double.parseDouble(amt);
                 payments.add(new Payment(sid, a, LocalDate.now()));
-                refreshTable(); refreshDashboard();
             } catch (Exception ex) { JOptionPane.showMessageDialog(this, "Invalid amount."); }
         }
 
@@ -429,14 +533,6 @@ public class SchoolManagementSystem {
             JOptionPane.showMessageDialog(this, "Outstanding feature requires fee structure to compute. This demo stores payments only.");
         }
 
-        void refreshTable() {
-            model.setRowCount(0);
-            for (Payment p : payments) {
-                Student s = students.stream().filter(x->x.id.equals(p.studentId)).findFirst().orElse(null);
-                String name = s==null?"(deleted)":(s.firstName + " " + s.lastName);
-                model.addRow(new Object[]{p.studentId, name, p.amount, p.date.toString()});
-            }
-        }
     }
 
     class ReportsPanel extends JPanel {
@@ -448,6 +544,645 @@ public class SchoolManagementSystem {
         }
     }
 
+    // ----------------------- Repositories -----------------------
+    // Rows in a list, so tables can address them by index, with listeners told which rows changed
+    // and the change bus told that something did. Changed on the event thread only, under the write
+    // lock; the event thread reads freely, other threads through size() and snapshot().
+    static class RowStore<T> {
+        final List<T> rows = new ArrayList<>();
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<RowsListener> listeners = new ArrayList<>();
+
+        T get(int row) { return rows.get(row); }
+        List<T> all() { return Collections.unmodifiableList(rows); }
+
+        int size() {
+            lock.readLock().lock();
+            try { return rows.size(); } finally { lock.readLock().unlock(); }
+        }
+
+        // a copy for background workers
+        List<T> snapshot() {
+            lock.readLock().lock();
+            try { return new ArrayList<>(rows); } finally { lock.readLock().unlock(); }
+        }
+
+        void addListener(RowsListener l) { listeners.add(l); }
+
+        void fire(int type, int first, int last) {
+            for (RowsListener l : listeners) l.rowsChanged(type, first, last);
+            changes.publish();
+        }
+    }
+
+    // row-level change notice; type is TableModelEvent.INSERT, UPDATE or DELETE
+    interface RowsListener { void rowsChanged(int type, int first, int last); }
+
+    // Entities keyed by id: find, add and remove are O(1) hash operations. A removal moves the last
+    // row into the gap instead of shifting everything after it, so order is insertion order until
+    // the first delete, and a delete touches two rows at most.
+    static class Repository<T> extends RowStore<T> {
+        private final Function<T, String> idOf;
+        private final Map<String, Integer> index = new HashMap<>(); // id -> row
+
+        Repository(Function<T, String> idOf) { this.idOf = idOf; }
+
+        T find(String id) { Integer r = index.get(id); return r == null ? null : rows.get(r); }
+        int indexOf(String id) { return index.getOrDefault(id, -1); }
+
+        // false if the id is taken
+        boolean add(T t) { return addAll(Collections.singletonList(t)) == 1; }
+
+        // one insert event for the whole batch; entities whose id is taken are skipped. Returns the number added.
+        int addAll(Collection<T> batch) {
+            int first = rows.size();
+            lock.writeLock().lock();
+            try {
+                for (T t : batch) {
+                    String id = idOf.apply(t);
+                    if (index.containsKey(id)) continue;
+                    index.put(id, rows.size());
+                    rows.add(t);
+                }
+            } finally { lock.writeLock().unlock(); }
+            if (rows.size() > first) fire(TableModelEvent.INSERT, first, rows.size() - 1);
+            return rows.size() - first;
+        }
+
+        // the entity's fields were edited in place
+        void changed(String id) {
+            int r = indexOf(id);
+            if (r >= 0) fire(TableModelEvent.UPDATE, r, r);
+        }
+
+        T remove(String id) {
+            T removed, last;
+            int r, lastRow;
+            lock.writeLock().lock();
+            try {
+                Integer at = index.remove(id);
+                if (at == null) return null;
+                r = at;
+                removed = rows.get(r);
+                lastRow = rows.size() - 1;
+                last = rows.remove(lastRow);
+                if (last != removed) {
+                    rows.set(r, last);
+                    index.put(idOf.apply(last), r);
+                }
+            } finally { lock.writeLock().unlock(); }
+            fire(TableModelEvent.DELETE, lastRow, lastRow);
+            if (last != removed) fire(TableModelEvent.UPDATE, r, r);
+            return removed;
+        }
+    }
+
+    // Per-student records (grades, payments): kept in entry order and indexed by student,
+    // so one student's records are found without scanning everyone's.
+    static class StudentRecords<T> extends RowStore<T> {
+        private final Function<T, String> studentOf;
+        private final Map<String, List<T>> byStudent = new HashMap<>();
+
+        StudentRecords(Function<T, String> studentOf) { this.studentOf = studentOf; }
+
+        void add(T t) { addAll(Collections.singletonList(t)); }
+
+        // one insert event for the whole batch
+        void addAll(Collection<T> batch) {
+            if (batch.isEmpty()) return;
+            int first = rows.size();
+            lock.writeLock().lock();
+            try {
+                for (T t : batch) {
+                    rows.add(t);
+                    byStudent.computeIfAbsent(studentOf.apply(t), k -> new ArrayList<>()).add(t);
+                    added(t);
+                }
+            } finally { lock.writeLock().unlock(); }
+            fire(TableModelEvent.INSERT, first, rows.size() - 1);
+        }
+
+        // each new record, under the write lock, for subclasses that keep figures derived from them
+        void added(T t) {}
+
+        List<T> forStudent(String id) { return Collections.unmodifiableList(byStudent.getOrDefault(id, Collections.emptyList())); }
+    }
+
+    // ----------------------- Gradebook aggregates -----------------------
+    // Running count, sum, min, max and variance of grades per student, per subject and per student
+    // and subject, brought up to date as each grade is added, so averages and rankings never rescan
+    // the records. Variance is kept the Welford way (running mean and sum of squared deviations),
+    // which stays accurate over long histories where sum-of-squares minus square-of-sum would not.
+    static class GradeStats {
+        private long count;
+        private double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, mean, m2;
+
+        void add(double g) {
+            count++;
+            sum += g;
+            min = Math.min(min, g);
+            max = Math.max(max, g);
+            double d = g - mean;
+            mean += d / count;
+            m2 += d * (g - mean);
+        }
+
+        GradeStats copy() {
+            GradeStats c = new GradeStats();
+            c.count = count; c.sum = sum; c.min = min; c.max = max; c.mean = mean; c.m2 = m2;
+            return c;
+        }
+
+        long count() { return count; }
+        double sum() { return sum; }
+        double min() { return count == 0 ? Double.NaN : min; }
+        double max() { return count == 0 ? Double.NaN : max; }
+        double mean() { return count == 0 ? Double.NaN : sum / count; }
+        double variance() { return count == 0 ? Double.NaN : m2 / count; } // of the population: all of a class's grades
+        double stdDev() { return Math.sqrt(variance()); }
+
+        String format() {
+            return count == 0 ? "no grades" : String.format("%d grades, mean %.2f, min %.2f, max %.2f, sd %.2f", count, mean(), min, max, stdDev());
+        }
+    }
+
+    // one student's place in a ranking; students with equal means share a rank
+    static class Ranking {
+        final String studentId;
+        final GradeStats stats;
+        final int rank;
+        final double percentile; // share of ranked students with a lower mean, 0..100
+
+        Ranking(String studentId, GradeStats stats, int rank, double percentile) {
+            this.studentId = studentId; this.stats = stats; this.rank = rank; this.percentile = percentile;
+        }
+    }
+
+    static class Gradebook extends StudentRecords<GradeRecord> {
+        static final double MIN_GRADE = 0, MAX_GRADE = 100;
+        private final Map<String, GradeStats> byStudent = new HashMap<>();
+        private final Map<String, GradeStats> bySubject = new HashMap<>();
+        private final Map<String, Map<String, GradeStats>> byStudentSubject = new HashMap<>(); // student -> subject -> stats
+
+        Gradebook() { super(g -> g.studentId); }
+
+        // false for NaN and the infinities too: one of those would turn every aggregate it reaches into
+        // NaN for good, since the running figures cannot be recomputed without it
+        static boolean isValidGrade(double g) { return g >= MIN_GRADE && g <= MAX_GRADE; }
+
+        @Override
+        void addAll(Collection<GradeRecord> batch) {
+            for (GradeRecord g : batch) { // all or nothing
+                if (!isValidGrade(g.grade)) throw new IllegalArgumentException("Grade out of range: " + g.grade);
+            }
+            super.addAll(batch);
+        }
+
+        @Override
+        void added(GradeRecord g) {
+            byStudent.computeIfAbsent(g.studentId, k -> new GradeStats()).add(g.grade);
+            bySubject.computeIfAbsent(g.subject, k -> new GradeStats()).add(g.grade);
+            byStudentSubject.computeIfAbsent(g.studentId, k -> new HashMap<>()).computeIfAbsent(g.subject, k -> new GradeStats()).add(g.grade);
+        }
+
+        // copies, safe to keep and to read from any thread
+        GradeStats statsFor(String studentId) {
+            lock.readLock().lock();
+            try { return copyOf(byStudent.get(studentId)); } finally { lock.readLock().unlock(); }
+        }
+
+        // subject null: every grade
+        GradeStats statsForSubject(String subject) {
+            lock.readLock().lock();
+            try {
+                if (subject != null) return copyOf(bySubject.get(subject));
+                GradeStats all = new GradeStats();
+                for (GradeStats st : bySubject.values()) all = merge(all, st);
+                return all;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        GradeStats statsFor(String studentId, String subject) {
+            lock.readLock().lock();
+            try {
+                Map<String, GradeStats> m = byStudentSubject.get(studentId);
+                return copyOf(m == null ? null : m.get(subject));
+            } finally { lock.readLock().unlock(); }
+        }
+
+        List<String> subjects() {
+            lock.readLock().lock();
+            try { List<String> out = new ArrayList<>(bySubject.keySet()); Collections.sort(out); return out; }
+            finally { lock.readLock().unlock(); }
+        }
+
+        // Every student with grades (in the subject, or in any when subject is null), best mean first.
+        // The aggregates are copied under the read lock, one per student, and ranked in parallel streams
+        // outside it; the grade records themselves are never read.
+        List<Ranking> rank(String subject) {
+            Map<String, GradeStats> per = new HashMap<>();
+            lock.readLock().lock();
+            try {
+                if (subject == null) byStudent.forEach((id, st) -> per.put(id, st.copy()));
+                else byStudentSubject.forEach((id, m) -> { GradeStats st = m.get(subject); if (st != null) per.put(id, st.copy()); });
+            } finally { lock.readLock().unlock(); }
+            double[] means = per.values().parallelStream().mapToDouble(GradeStats::mean).toArray();
+            Arrays.parallelSort(means);
+            int n = means.length;
+            return per.entrySet().parallelStream()
+                    .map(e -> {
+                        double m = e.getValue().mean();
+                        int below = lowerBound(means, m), notAbove = lowerBound(means, Math.nextUp(m));
+                        return new Ranking(e.getKey(), e.getValue(), n - notAbove + 1, 100.0 * below / n);
+                    })
+                    .sorted(Comparator.comparingInt((Ranking r) -> r.rank).thenComparing(r -> r.studentId))
+                    .collect(Collectors.toList());
+        }
+
+        // first index whose value is >= v
+        private static int lowerBound(double[] a, double v) {
+            int lo = 0, hi = a.length;
+            while (lo < hi) { int mid = (lo + hi) >>> 1; if (a[mid] < v) lo = mid + 1; else hi = mid; }
+            return lo;
+        }
+
+        private static GradeStats copyOf(GradeStats st) { return st == null ? new GradeStats() : st.copy(); }
+
+        // Chan et al.'s pairwise combination of two running aggregates
+        private static GradeStats merge(GradeStats a, GradeStats b) {
+            if (a.count == 0) return b.copy();
+            GradeStats c = new GradeStats();
+            c.count = a.count + b.count;
+            c.sum = a.sum + b.sum;
+            c.min = Math.min(a.min, b.min);
+            c.max = Math.max(a.max, b.max);
+            double d = b.mean - a.mean;
+            c.mean = a.mean + d * b.count / c.count;
+            c.m2 = a.m2 + b.m2 + d * d * a.count * b.count / c.count;
+            return c;
+        }
+    }
+
+    // ----------------------- Attendance store -----------------------
+    // One mark per (day, student). Each day packs its statuses 2 bits apiece, indexed by the student's
+    // ordinal (handed out on a student's first mark, never reused), beside a bitmap of who was marked
+    // at all and a running count per status. A new day's arrays are sized for the students known so
+    // far and only grow (by doubling) for students marked for the first time, so with 10,000 students
+    // a day takes 313 words of codes and 157 of bitmap plus the Day, its counts and its TreeMap entry:
+    // about 4 KB, and a year about 1.5 MB, rather than millions of record objects. Marking a student
+    // again on the same day replaces the earlier status. Changed on the event thread under the write lock; queries take the read
+    // lock and build AttendanceRecords on the way out, for display.
+    static class AttendanceStore {
+        static final String[] STATUSES = {"Present", "Absent", "Late", "Excused"}; // index = 2-bit code
+
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final List<String> studentIds = new ArrayList<>(); // ordinal -> id
+        private final TreeMap<Long, Day> days = new TreeMap<>();    // epoch day -> marks
+        private int total;
+        private final List<AttendanceListener> listeners = new ArrayList<>();
+
+        private static final class Day {
+            long[] codes;  // 32 students a word
+            long[] marked; // 64 students a word
+            final int[] counts = new int[STATUSES.length];
+
+            // sized for the students known so far, so a settled roster's days never grow
+            Day(int students) {
+                codes = new long[Math.max(1, (students + 31) >>> 5)];
+                marked = new long[Math.max(1, (students + 63) >>> 6)];
+            }
+
+            boolean isMarked(int ord) { int w = ord >>> 6; return w < marked.length && (marked[w] & 1L << ord) != 0; }
+            int codeOf(int ord) { return (int) (codes[ord >>> 5] >>> ((ord & 31) << 1)) & 3; }
+
+            // true if the student had no mark that day yet
+            boolean set(int ord, int code) {
+                if (ord >>> 6 >= marked.length) marked = Arrays.copyOf(marked, Math.max(marked.length * 2, (ord >>> 6) + 1));
+                if (ord >>> 5 >= codes.length) codes = Arrays.copyOf(codes, Math.max(codes.length * 2, (ord >>> 5) + 1));
+                boolean fresh = !isMarked(ord);
+                if (fresh) marked[ord >>> 6] |= 1L << ord;
+                else counts[codeOf(ord)]--;
+                int shift = (ord & 31) << 1;
+                codes[ord >>> 5] = codes[ord >>> 5] & ~(3L << shift) | (long) code << shift;
+                counts[code]++;
+                return fresh;
+            }
+        }
+
+        static int code(String status) {
+            for (int i = 0; i < STATUSES.length; i++) if (STATUSES[i].equals(status)) return i;
+            throw new IllegalArgumentException("Unknown attendance status: " + status);
+        }
+
+        void mark(String studentId, LocalDate date, String status) {
+            markAll(Collections.singletonList(new AttendanceRecord(studentId, date, status)));
+        }
+
+        // a single mark is reported as that one row; a batch as one event spanning the days it touched
+        void markAll(Collection<AttendanceRecord> batch) {
+            if (batch.isEmpty()) return;
+            int[] codes = new int[batch.size()];
+            int i = 0;
+            for (AttendanceRecord a : batch) codes[i++] = code(a.status); // all or nothing
+            long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+            int ord = -1;
+            boolean fresh = false;
+            lock.writeLock().lock();
+            try {
+                i = 0;
+                for (AttendanceRecord a : batch) {
+                    long day = a.date.toEpochDay();
+                    ord = ordinal(a.studentId);
+                    fresh = days.computeIfAbsent(day, d -> new Day(studentIds.size())).set(ord, codes[i++]);
+                    if (fresh) total++;
+                    first = Math.min(first, day); last = Math.max(last, day);
+                }
+            } finally { lock.writeLock().unlock(); }
+            if (batch.size() == 1) {
+                AttendanceRecord a = batch.iterator().next();
+                for (AttendanceListener l : listeners) l.marked(first, ord, new AttendanceRecord(a.studentId, a.date, a.status), fresh);
+            } else {
+                for (AttendanceListener l : listeners) l.daysChanged(first, last);
+            }
+            changes.publish();
+        }
+
+        private int ordinal(String studentId) {
+            Integer ord = ordinals.get(studentId);
+            if (ord == null) { ord = studentIds.size(); ordinals.put(studentId, ord); studentIds.add(studentId); }
+            return ord;
+        }
+
+        // marks over all days
+        int size() {
+            lock.readLock().lock();
+            try { return total; } finally { lock.readLock().unlock(); }
+        }
+
+        // everyone marked on the date, in the order the students were first marked on any day
+        List<AttendanceRecord> forDate(LocalDate date) {
+            List<AttendanceRecord> out = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                Day d = days.get(date.toEpochDay());
+                if (d == null) return out;
+                for (int w = 0; w < d.marked.length; w++) {
+                    for (long bits = d.marked[w]; bits != 0; bits &= bits - 1) {
+                        int ord = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        out.add(new AttendanceRecord(studentIds.get(ord), date, STATUSES[d.codeOf(ord)]));
+                    }
+                }
+                return out;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // the ordinals of everyone marked on the date, ascending: the order forDate lists them in
+        int[] ordinalsFor(LocalDate date) {
+            lock.readLock().lock();
+            try {
+                Day d = days.get(date.toEpochDay());
+                if (d == null) return new int[0];
+                int n = 0;
+                for (long w : d.marked) n += Long.bitCount(w);
+                int[] out = new int[n];
+                n = 0;
+                for (int w = 0; w < d.marked.length; w++) {
+                    for (long bits = d.marked[w]; bits != 0; bits &= bits - 1) out[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                return out;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // one student's marks from `from` to `to` inclusive, by date
+        List<AttendanceRecord> forStudent(String studentId, LocalDate from, LocalDate to) {
+            List<AttendanceRecord> out = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                Integer ord = ordinals.get(studentId);
+                if (ord == null || from.isAfter(to)) return out;
+                for (Map.Entry<Long, Day> e : days.subMap(from.toEpochDay(), true, to.toEpochDay(), true).entrySet()) {
+                    Day d = e.getValue();
+                    if (d.isMarked(ord)) out.add(new AttendanceRecord(studentId, LocalDate.ofEpochDay(e.getKey()), STATUSES[d.codeOf(ord)]));
+                }
+                return out;
+            } finally { lock.readLock().unlock(); }
+        }
+
+        // how many were marked with each status on the date, indexed like STATUSES
+        int[] countsFor(LocalDate date) {
+            lock.readLock().lock();
+            try {
+                Day d = days.get(date.toEpochDay());
+                return d == null ? new int[STATUSES.length] : d.counts.clone();
+            } finally { lock.readLock().unlock(); }
+        }
+
+        void addListener(AttendanceListener l) { listeners.add(l); }
+    }
+
+    interface AttendanceListener {
+        // one student marked on an epoch day; fresh if they had no mark that day before
+        void marked(long day, int ordinal, AttendanceRecord mark, boolean fresh);
+        // a batch of marks changed on epoch days first..last
+        void daysChanged(long firstDay, long lastDay);
+    }
+
+    // ----------------------- Change bus -----------------------
+    // Stores report every change here, from whatever thread; subscribers hear about it on the event
+    // thread once per THROTTLE_MS at most, however many changes came in meanwhile, so a bulk load of
+    // thousands of rows redraws the dashboard a few times instead of once per row.
+    static class ChangeBus {
+        static final int THROTTLE_MS = 250;
+        private final List<Runnable> subscribers = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private final javax.swing.Timer timer = new javax.swing.Timer(THROTTLE_MS, e -> deliver());
+
+        ChangeBus() { timer.setRepeats(false); }
+
+        void subscribe(Runnable r) { subscribers.add(r); }
+
+        void publish() {
+            if (pending.compareAndSet(false, true)) SwingUtilities.invokeLater(timer::start);
+        }
+
+        private void deliver() {
+            pending.set(false); // changes from here on schedule the next delivery
+            for (Runnable r : subscribers) r.run();
+        }
+    }
+
+    // ----------------------- Background loading -----------------------
+    // Generates students with a few attendance, grade and payment records each off the event thread,
+    // handing them over in chunks: one insert event per table per chunk, and the bus coalesces the rest.
+    static class SampleDataLoader extends SwingWorker<Integer, SampleDataLoader.Chunk> {
+        private static final int CHUNK = 2000;
+        private static final String[] FIRST = {"Juan", "Ana", "Jose", "Maria", "Pedro", "Clara", "Luis", "Rosa"};
+        private static final String[] LAST = {"Santos", "Reyes", "Cruz", "Bautista", "Ocampo", "Garcia", "Mendoza", "Torres"};
+        private static final String[] SUBJECTS = {"Mathematics", "Science", "English", "Filipino", "History"};
+        private static final String[] STATUSES = {"Present", "Present", "Present", "Present", "Absent", "Late", "Excused"};
+
+        private final int count;
+        private final JLabel status;
+        private final long start = System.nanoTime();
+
+        static class Chunk {
+            final List<Student> students = new ArrayList<>();
+            final List<AttendanceRecord> attendance = new ArrayList<>();
+            final List<GradeRecord> grades = new ArrayList<>();
+            final List<Payment> payments = new ArrayList<>();
+        }
+
+        SampleDataLoader(int count, JLabel status) { this.count = count; this.status = status; }
+
+        @Override
+        protected Integer doInBackground() {
+            Random rnd = new Random(1);
+            LocalDate today = LocalDate.now();
+            Chunk c = new Chunk();
+            for (int i = 0; i < count; i++) {
+                String id = String.format("S%06d", i);
+                c.students.add(new Student(id, FIRST[rnd.nextInt(FIRST.length)], LAST[rnd.nextInt(LAST.length)],
+                        String.format("0917%07d", rnd.nextInt(10_000_000)), 12 + rnd.nextInt(7), "Grade " + (7 + rnd.nextInt(6)), "Parent"));
+                for (int d = 0; d < 5; d++) c.attendance.add(new AttendanceRecord(id, today.minusDays(d), STATUSES[rnd.nextInt(STATUSES.length)]));
+                for (int g = 0; g < 3; g++) c.grades.add(new GradeRecord(id, SUBJECTS[rnd.nextInt(SUBJECTS.length)], 65 + rnd.nextInt(36)));
+                c.payments.add(new Payment(id, 500 * (1 + rnd.nextInt(10)), today.minusDays(rnd.nextInt(60))));
+                if (c.students.size() == CHUNK) { publish(c); c = new Chunk(); }
+            }
+            if (!c.students.isEmpty()) publish(c);
+            return count;
+        }
+
+        @Override
+        protected void process(List<Chunk> chunks) {
+            for (Chunk c : chunks) {
+                students.addAll(c.students);
+                attendance.markAll(c.attendance);
+                grades.addAll(c.grades);
+                payments.addAll(c.payments);
+            }
+            status.setText(String.format("Loading sample data: %,d of %,d students", students.size(), count));
+        }
+
+        @Override
+        protected void done() {
+            try {
+                status.setText(String.format("Loaded %,d sample students in %.1f s", get(), (System.nanoTime() - start) / 1e9));
+            } catch (InterruptedException | ExecutionException ex) {
+                status.setText("Sample data failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    // ----------------------- Table models -----------------------
+    // A table over a store, read lazily: cells are computed from the row object when JTable paints
+    // them, so nothing is copied into boxed Object[] rows, and each store change fires an event for
+    // just the rows it touched, so only those repaint.
+    static class StoreTableModel<T> extends AbstractTableModel implements RowsListener {
+        private static final long serialVersionUID = 1L;
+        private final RowStore<T> store;
+        private final String[] columns;
+        private final List<Function<T, Object>> cells;
+
+        @SafeVarargs
+        StoreTableModel(RowStore<T> store, String[] columns, Function<T, Object>... cells) {
+            this.store = store;
+            this.columns = columns;
+            List<Function<T, Object>> list = new ArrayList<>(cells.length); // copied: the array never escapes
+            for (Function<T, Object> f : cells) list.add(f);
+            this.cells = Collections.unmodifiableList(list);
+            store.addListener(this);
+        }
+
+        T rowAt(int row) { return store.get(row); }
+
+        @Override public int getRowCount() { return store.size(); }
+        @Override public int getColumnCount() { return columns.length; }
+        @Override public String getColumnName(int c) { return columns[c]; }
+        @Override public Object getValueAt(int r, int c) { return cells.get(c).apply(store.get(r)); }
+
+        @Override
+        public void rowsChanged(int type, int first, int last) {
+            if (type == TableModelEvent.INSERT) fireTableRowsInserted(first, last);
+            else if (type == TableModelEvent.DELETE) fireTableRowsDeleted(first, last);
+            else fireTableRowsUpdated(first, last);
+        }
+
+        // a column read from another store (the student's name) may have changed on any row
+        void columnChanged(int column) {
+            if (getRowCount() > 0) fireTableChanged(new TableModelEvent(this, 0, getRowCount() - 1, column));
+        }
+    }
+
+    // One day's marks from the attendance store, in student ordinal order. A single mark on that day
+    // inserts or updates just its row; a batch touching the day reloads it.
+    static class AttendanceDayModel extends AbstractTableModel implements AttendanceListener {
+        private static final long serialVersionUID = 1L;
+        private static final String[] COLUMNS = {"Student ID", "Name", "Date", "Status"};
+        private final AttendanceStore store;
+        private LocalDate date;
+        private List<AttendanceRecord> rows;
+        private int[] ordinals; // of rows, ascending; may run past rows.size()
+
+        AttendanceDayModel(AttendanceStore store, LocalDate date) {
+            this.store = store;
+            store.addListener(this);
+            show(date);
+        }
+
+        LocalDate date() { return date; }
+
+        void show(LocalDate date) {
+            this.date = date;
+            rows = store.forDate(date);
+            ordinals = store.ordinalsFor(date);
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount() { return rows.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int c) { return COLUMNS[c]; }
+
+        @Override
+        public Object getValueAt(int r, int c) {
+            AttendanceRecord a = rows.get(r);
+            switch (c) {
+                case 0: return a.studentId;
+                case 1: return studentName(a.studentId);
+                case 2: return a.date.toString();
+                default: return a.status;
+            }
+        }
+
+        @Override
+        public void marked(long day, int ordinal, AttendanceRecord mark, boolean fresh) {
+            if (day != date.toEpochDay()) return;
+            int n = rows.size();
+            int row = Arrays.binarySearch(ordinals, 0, n, ordinal);
+            if (row >= 0) {
+                rows.set(row, mark);
+                fireTableRowsUpdated(row, row);
+                return;
+            }
+            row = -row - 1;
+            if (n == ordinals.length) ordinals = Arrays.copyOf(ordinals, Math.max(8, n * 2));
+            System.arraycopy(ordinals, row, ordinals, row + 1, n - row);
+            ordinals[row] = ordinal;
+            rows.add(row, mark);
+            fireTableRowsInserted(row, row);
+        }
+
+        @Override
+        public void daysChanged(long firstDay, long lastDay) {
+            long d = date.toEpochDay();
+            if (d >= firstDay && d <= lastDay) show(date);
+        }
+
+        void columnChanged(int column) {
+            if (getRowCount() > 0) fireTableChanged(new TableModelEvent(this, 0, getRowCount() - 1, column));
+        }
+    }
+
     // ----------------------- Models -----------------------
     static class Student {
         String id, firstName, lastName, phone, level, guardian;
@@ -0,0 +1,366 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// ---------- Hash-partitioned facade over N independent Library shards ----------
+// An item, its loans and its holds all live in the shard picked by hashing the item id. Each shard
+// is a whole Library, so it has its own lock stripes, checkpoint lock, journal, loan archive and
+// snapshot file; nothing is shared between shards.
+// Members are not partitioned. Checkout validates the member inside the item's shard, so every
+// member is registered in every shard.
+//
+// Single-item operations go straight to one shard. Searches, listings and reports scatter to every
+// shard on a shared pool and gather the results. Saving and loading run all shards at once.
+//
+// On disk, for a base file library.dat:
+//   library.dat.shards               "shards=N"; loading honours it whatever count is asked for
+//   library.dat.shard-<i>            shard i's snapshot (+ .journal, .archive/ beside it)
+// usage: java -Xmx6g ShardedLibrary [items] [maxShards]   times parallel save/load by shard count
+class ShardedLibrary {
+    static final String MANIFEST_SUFFIX = ".shards";
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "library-shard");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final Library[] shards;
+
+    ShardedLibrary(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("Need at least one shard");
+        shards = new Library[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Library();
+    }
+
+    private ShardedLibrary(Library[] shards) {
+        this.shards = shards;
+    }
+
+    int shardCount() { return shards.length; }
+    Library shard(int i) { return shards[i]; }
+
+    Library shardFor(String itemId) {
+        int h = itemId.hashCode();
+        h ^= h >>> 16;
+        return shards[Math.floorMod(h * 0x9E3779B9, shards.length)];
+    }
+
+    public void setClock(Clock clock) { for (Library s : shards) s.setClock(clock); }
+    public LocalDate today() { return shards[0].today(); }
+
+    // ---------- scatter / gather ----------
+    interface ShardTask<T> { T run(Library shard, int index) throws Exception; }
+
+    // runs task on every shard concurrently; results in shard order. The first failure is rethrown
+    // once every shard has finished, so none is left running against a half-built state.
+    private <T> List<T> scatter(ShardTask<T> task) throws IOException {
+        return scatter(shards.length, i -> task.run(shards[i], i));
+    }
+
+    interface IndexTask<T> { T run(int index) throws Exception; }
+
+    private static <T> List<T> scatter(int n, IndexTask<T> task) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int index = i;
+            futures.add(POOL.submit(() -> task.run(index)));
+        }
+        List<T> out = new ArrayList<>(n);
+        Throwable failure = null;
+        for (Future<T> f : futures) {
+            try {
+                out.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new InterruptedIOException("Interrupted waiting for shards");
+            }
+        }
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IOException("Shard task failed", failure);
+        return out;
+    }
+
+    // for reads that cannot fail with an IOException
+    private <T> List<T> gather(ShardTask<T> task) {
+        try {
+            return scatter(task);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> List<T> concat(List<? extends Collection<T>> parts) {
+        int n = 0;
+        for (Collection<T> p : parts) n += p.size();
+        List<T> out = new ArrayList<>(n);
+        for (Collection<T> p : parts) out.addAll(p);
+        return out;
+    }
+
+    // a live view across every shard's collection, like Library's own values() views
+    private static <T> Collection<T> chained(List<Collection<T>> parts) {
+        return new AbstractCollection<T>() {
+            @Override
+            public int size() {
+                int n = 0;
+                for (Collection<T> p : parts) n += p.size();
+                return n;
+            }
+
+            @Override
+            public Iterator<T> iterator() {
+                return parts.stream().flatMap(Collection::stream).iterator();
+            }
+        };
+    }
+
+    private <T> Collection<T> chained(java.util.function.Function<Library, Collection<T>> part) {
+        List<Collection<T>> parts = new ArrayList<>(shards.length);
+        for (Library s : shards) parts.add(part.apply(s));
+        return chained(parts);
+    }
+
+    // ---------- items ----------
+    public void addItem(LibraryItem item) { shardFor(item.getId()).addItem(item); }
+
+    // split by shard, then each shard takes its part as one batch, all shards at once
+    public void addAll(Collection<? extends LibraryItem> batch) {
+        List<List<LibraryItem>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) parts.add(new ArrayList<>());
+        for (LibraryItem it : batch) parts.get(indexOf(shardFor(it.getId()))).add(it);
+        gather((s, i) -> {
+            if (!parts.get(i).isEmpty()) s.addAll(parts.get(i));
+            return null;
+        });
+    }
+
+    private int indexOf(Library shard) {
+        for (int i = 0; i < shards.length; i++) if (shards[i] == shard) return i;
+        throw new IllegalArgumentException("Not a shard of this library");
+    }
+
+    public LibraryItem removeItem(String id) { return shardFor(id).removeItem(id); }
+    public LibraryItem findItemById(String id) { return shardFor(id).findItemById(id); }
+    public void setCopies(String itemId, int copies) { shardFor(itemId).setCopies(itemId, copies); }
+    public Collection<LibraryItem> allItems() { return chained(Library::allItems); }
+
+    public List<LibraryItem> searchByTitle(String term) { return concat(gather((s, i) -> s.searchByTitle(term))); }
+    public List<LibraryItem> findBooks(BookQuery query) { return concat(gather((s, i) -> s.findBooks(query))); }
+
+    public int countBooks(BookQuery query) {
+        int n = 0;
+        for (int c : gather((s, i) -> s.countBooks(query))) n += c;
+        return n;
+    }
+
+    // ---------- members: registered in every shard ----------
+    public void addMember(Member m) {
+        for (Library s : shards) s.addMember(m);
+    }
+
+    public void addAllMembers(Collection<Member> batch) {
+        gather((s, i) -> {
+            s.addAllMembers(batch);
+            return null;
+        });
+    }
+
+    public Member findMember(String memberId) { return shards[0].findMember(memberId); }
+    public Collection<Member> allMembers() { return shards[0].allMembers(); }
+
+    // ---------- loans ----------
+    public Loan checkoutItem(String itemId, String memberId) { return shardFor(itemId).checkoutItem(itemId, memberId); }
+
+    // loan ids carry no shard, so in-memory loans are looked for in each shard, then the archives
+    public Loan returnItemByLoanId(String loanId) {
+        for (Library s : shards) if (s.hasLoanInMemory(loanId)) return s.returnItemByLoanId(loanId);
+        return shards[0].returnItemByLoanId(loanId); // reports "already returned" or "not found" as Library does
+    }
+
+    public Loan findLoan(String loanId) {
+        for (Library s : shards) if (s.hasLoanInMemory(loanId)) return s.findLoan(loanId);
+        for (Library s : shards) {
+            Loan l = s.findLoan(loanId);
+            if (l != null) return l;
+        }
+        return null;
+    }
+
+    public Loan findLoanByItemId(String itemId) { return shardFor(itemId).findLoanByItemId(itemId); }
+    public Collection<Loan> openLoansForItem(String itemId) { return shardFor(itemId).openLoansForItem(itemId); }
+    public Collection<Loan> allLoans() { return chained(Library::allLoans); }
+
+    public Collection<Loan> openLoansForMember(String memberId) {
+        List<Loan> out = new ArrayList<>();
+        for (Library s : shards) out.addAll(s.openLoansForMember(memberId));
+        return out;
+    }
+
+    public List<Loan> loanHistoryForMember(String memberId) {
+        List<Loan> history = concat(gather((s, i) -> s.loanHistoryForMember(memberId)));
+        history.sort(Comparator.comparing(Loan::getCheckoutDate));
+        return history;
+    }
+
+    public double calculateFine(Loan loan, LocalDate asOf) { return shardFor(loan.getItemId()).calculateFine(loan, asOf); }
+
+    public List<Loan> overdueLoans(LocalDate asOf) {
+        List<Loan> overdue = concat(gather((s, i) -> s.overdueLoans(asOf)));
+        overdue.sort(Comparator.comparing(Loan::getDueDate));
+        return overdue;
+    }
+
+    public Map<String, Double> finesOwedByMember(LocalDate asOf) {
+        Map<String, Double> owed = new TreeMap<>();
+        for (Map<String, Double> part : gather((s, i) -> s.finesOwedByMember(asOf))) {
+            part.forEach((member, fine) -> owed.merge(member, fine, Double::sum));
+        }
+        return owed;
+    }
+
+    // ---------- holds ----------
+    public Hold placeHold(String itemId, String memberId) { return shardFor(itemId).placeHold(itemId, memberId); }
+    public List<Hold> holdsForItem(String itemId) { return shardFor(itemId).holdsForItem(itemId); }
+
+    public void cancelHold(String holdId) {
+        for (Library s : shards) {
+            if (s.findHold(holdId) != null) {
+                s.cancelHold(holdId);
+                return;
+            }
+        }
+        throw new IllegalStateException("Hold not found");
+    }
+
+    public List<Hold> holdsForMember(String memberId) {
+        List<Hold> out = concat(gather((s, i) -> s.holdsForMember(memberId)));
+        out.sort(Comparator.comparing(Hold::getPlacedOn));
+        return out;
+    }
+
+    public List<Hold> expireHolds(LocalDate asOf) { return concat(gather((s, i) -> s.expireHolds(asOf))); }
+
+    // ---------- persistence ----------
+    static String shardFile(String baseFile, int index) { return baseFile + ".shard-" + index; }
+
+    // every shard snapshotted to its own file at the same time; the manifest goes last
+    public void saveToFile(String baseFile) throws IOException {
+        scatter((s, i) -> {
+            s.saveToFile(shardFile(baseFile, i));
+            return null;
+        });
+        Path manifest = Paths.get(baseFile + MANIFEST_SUFFIX);
+        Path tmp = Paths.get(baseFile + MANIFEST_SUFFIX + ".tmp");
+        Files.write(tmp, ("shards=" + shards.length + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // loads every shard concurrently. A library saved with a different count keeps its own;
+    // with no manifest, shardCount shards start empty.
+    public static ShardedLibrary loadFromFile(String baseFile, int shardCount) throws IOException {
+        Path manifest = Paths.get(baseFile + MANIFEST_SUFFIX);
+        int n = Files.exists(manifest) ? readShardCount(manifest) : shardCount;
+        List<Library> loaded = scatter(n, i -> {
+            String file = shardFile(baseFile, i);
+            boolean exists = new File(file).exists() || LibraryJournal.fileFor(file).exists();
+            return exists ? Library.loadFromFile(file) : new Library();
+        });
+        ShardedLibrary lib = new ShardedLibrary(loaded.toArray(new Library[0]));
+        lib.reconcileMembers();
+        return lib;
+    }
+
+    private static int readShardCount(Path manifest) throws IOException {
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.startsWith("shards=")) return Integer.parseInt(line.substring("shards=".length()).trim());
+        }
+        throw new IOException("No shard count in " + manifest);
+    }
+
+    // a crash part-way through addMember can leave a member in only some shards' journals
+    private void reconcileMembers() {
+        Map<String, Member> all = new HashMap<>();
+        for (Library s : shards) for (Member m : s.allMembers()) all.putIfAbsent(m.getMemberId(), m);
+        for (Library s : shards) {
+            List<Member> missing = new ArrayList<>();
+            for (Member m : all.values()) if (s.findMember(m.getMemberId()) == null) missing.add(m);
+            if (!missing.isEmpty()) s.addAllMembers(missing);
+        }
+    }
+
+    public void openJournal(String baseFile) throws IOException {
+        scatter((s, i) -> {
+            s.openJournal(shardFile(baseFile, i));
+            return null;
+        });
+    }
+
+    public void openLoanArchive(String baseFile) throws IOException {
+        scatter((s, i) -> {
+            s.openLoanArchive(shardFile(baseFile, i));
+            return null;
+        });
+    }
+
+    public void closeJournal() throws IOException {
+        scatter((s, i) -> {
+            s.closeJournal();
+            return null;
+        });
+    }
+
+    // ---------- save/load timing by shard count ----------
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int maxShards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        System.out.printf("%,d books, %d cores%n", size, Runtime.getRuntime().availableProcessors());
+        Path dir = Files.createTempDirectory("library-shards");
+        try {
+            for (int n = 1; n <= maxShards; n *= 2) {
+                ShardedLibrary lib = generate(size, n);
+                String base = dir.resolve("library-" + n + ".dat").toString();
+                long t0 = System.nanoTime();
+                lib.saveToFile(base);
+                long saved = System.nanoTime() - t0;
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 3; run++) {
+                    long t1 = System.nanoTime();
+                    ShardedLibrary back = loadFromFile(base, n);
+                    best = Math.min(best, System.nanoTime() - t1);
+                    if (back.allItems().size() != size) throw new IllegalStateException("Lost items on reload");
+                }
+                System.out.printf("  %2d shard(s): save %6.0f ms, load %6.0f ms (best of 3)%n", n, saved / 1e6, best / 1e6);
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static ShardedLibrary generate(int size, int shards) {
+        ShardedLibrary lib = new ShardedLibrary(shards);
+        Random rnd = new Random(42);
+        List<LibraryItem> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(new Book(LibraryBenchmark.itemId(i), "volume " + i + " of the " + rnd.nextInt(1000) + " series",
+                    "Author " + rnd.nextInt(5000), 1900 + rnd.nextInt(125), "Genre " + rnd.nextInt(12)));
+        }
+        lib.addAll(batch);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, size / 100); i++) members.add(new Member(LibraryBenchmark.memberId(i), "Member " + i, "m" + i + "@example.com"));
+        lib.addAllMembers(members);
+        for (int i = 0; i < size; i += 10) lib.checkoutItem(LibraryBenchmark.itemId(i), members.get(i % members.size()).getMemberId());
+        return lib;
+    }
+}